@@ -0,0 +1,130 @@
+package com.lukekorth.auto_fi.models;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import io.realm.Realm;
+import io.realm.RealmConfiguration;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * In the models package because {@link WifiNetworkWriteBuffer} is package private. Batches are
+ * captured instead of being committed, so the test decides when each one is committed.
+ */
+@RunWith(AndroidJUnit4.class)
+public class WifiNetworkWriteBufferTest {
+
+    private static final String ALPHA = "\"alpha\"";
+    private static final String BRAVO = "\"bravo\"";
+    private static final String CHARLIE = "\"charlie\"";
+
+    private Realm mRealm;
+    private WifiNetworkWriteBuffer mBuffer;
+    private final List<Realm.Transaction> mTransactions =
+            Collections.synchronizedList(new ArrayList<Realm.Transaction>());
+    private final List<Runnable> mOnCompletes =
+            Collections.synchronizedList(new ArrayList<Runnable>());
+
+    @Before
+    public void setup() {
+        mRealm = Realm.getInstance(new RealmConfiguration.Builder()
+                .name("wifi-network-write-buffer-test.realm")
+                .inMemory()
+                .build());
+        mBuffer = new WifiNetworkWriteBuffer(new WifiNetworkWriteBuffer.Committer() {
+            @Override
+            public void commit(Realm.Transaction transaction, Runnable onComplete) {
+                mTransactions.add(transaction);
+                mOnCompletes.add(onComplete);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        mRealm.close();
+    }
+
+    @Test
+    public void disconnectAllIsAppliedBeforeLaterChanges() {
+        mRealm.beginTransaction();
+        WifiNetwork.findOrCreate(mRealm, ALPHA).setAutoconnected(true);
+        mRealm.commitTransaction();
+
+        mBuffer.setAutoconnected(BRAVO);
+        mBuffer.flush();
+        assertEquals(1, mTransactions.size());
+
+        // the first batch is in flight, so these are collected in the next one
+        mBuffer.setAllAutoconnectedDisconnected();
+        mBuffer.setAutoconnected(CHARLIE);
+        assertEquals(1, mTransactions.size());
+
+        commit(0);
+        assertEquals(2, mTransactions.size());
+        assertTrue(WifiNetwork.find(mRealm, ALPHA).isAutoconnected());
+        assertTrue(WifiNetwork.find(mRealm, BRAVO).isAutoconnected());
+
+        commit(1);
+        assertFalse(WifiNetwork.find(mRealm, ALPHA).isAutoconnected());
+        assertFalse(WifiNetwork.find(mRealm, BRAVO).isAutoconnected());
+        assertTrue(WifiNetwork.find(mRealm, CHARLIE).isAutoconnected());
+    }
+
+    @Test
+    public void readsThroughPendingBatch() {
+        mBuffer.setAutoconnected(ALPHA);
+
+        assertTrue(mBuffer.isAutoconnected(ALPHA));
+        assertTrue(mBuffer.willCreate(ALPHA));
+        assertNull(mBuffer.isAutoconnected(BRAVO));
+        assertFalse(mBuffer.willCreate(BRAVO));
+        assertEquals(0, mTransactions.size());
+    }
+
+    @Test
+    public void readsThroughBatchInFlight() {
+        mBuffer.setAutoconnected(ALPHA);
+        mBuffer.flush();
+        assertEquals(1, mTransactions.size());
+
+        assertTrue(mBuffer.isAutoconnected(ALPHA));
+        assertTrue(mBuffer.willCreate(ALPHA));
+
+        commit(0);
+        assertNull(mBuffer.isAutoconnected(ALPHA));
+        assertFalse(mBuffer.willCreate(ALPHA));
+        assertTrue(WifiNetwork.find(mRealm, ALPHA).isAutoconnected());
+    }
+
+    @Test
+    public void pendingBatchTakesPrecedenceOverBatchInFlight() {
+        mBuffer.setAutoconnected(ALPHA);
+        mBuffer.setAllAutoconnectedDisconnected();
+        assertEquals(1, mTransactions.size());
+
+        assertFalse(mBuffer.isAutoconnected(ALPHA));
+        assertFalse(mBuffer.isAutoconnected(BRAVO));
+
+        mBuffer.setAutoconnected(ALPHA);
+        assertTrue(mBuffer.isAutoconnected(ALPHA));
+        assertFalse(mBuffer.isAutoconnected(BRAVO));
+    }
+
+    private void commit(int batch) {
+        mRealm.executeTransaction(mTransactions.get(batch));
+        mOnCompletes.get(batch).run();
+    }
+}
@@ -0,0 +1,74 @@
+package com.lukekorth.auto_fi.test;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import com.lukekorth.auto_fi.network.CandidateScorer;
+import com.lukekorth.auto_fi.network.CandidateScorer.Candidate;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class CandidateScorerTest {
+
+    @Test
+    public void rejectsWeakSignal() {
+        Candidate weak = new Candidate("weak", "00:00:00:00:00:01", -95, 2412);
+
+        assertEquals(Double.NEGATIVE_INFINITY, CandidateScorer.score(weak));
+        assertNull(CandidateScorer.select(Collections.singletonList(weak)));
+    }
+
+    @Test
+    public void prefersStrongerSignalWithoutHistory() {
+        Candidate strong = new Candidate("strong", "00:00:00:00:00:01", -50, 2412);
+        Candidate weak = new Candidate("weak", "00:00:00:00:00:02", -80, 2412);
+
+        assertSame(strong, CandidateScorer.select(Arrays.asList(weak, strong)));
+    }
+
+    @Test
+    public void prefers5GhzAtEqualSignal() {
+        Candidate band24 = new Candidate("2.4", "00:00:00:00:00:01", -60, 2437);
+        Candidate band5 = new Candidate("5", "00:00:00:00:00:02", -60, 5180);
+
+        assertSame(band5, CandidateScorer.select(Arrays.asList(band24, band5)));
+    }
+
+    @Test
+    public void prefersGoodHistoryOverSlightlyStrongerSignal() {
+        Candidate badBackhaul = new Candidate("bad", "00:00:00:00:00:01", -55, 2412)
+                .probeLatency(2000)
+                .throughput(10 * 1024)
+                .bypasses(4, 0)
+                .blacklistCount(2);
+        Candidate goodBackhaul = new Candidate("good", "00:00:00:00:00:02", -65, 2412)
+                .probeLatency(80)
+                .throughput(1024 * 1024)
+                .bypasses(4, 4);
+
+        assertSame(goodBackhaul, CandidateScorer.select(Arrays.asList(badBackhaul, goodBackhaul)));
+    }
+
+    @Test
+    public void unknownHistoryScoresBetweenGoodAndBad() {
+        Candidate unknown = new Candidate("unknown", "00:00:00:00:00:01", -60, 2412);
+        Candidate good = new Candidate("good", "00:00:00:00:00:02", -60, 2412)
+                .probeLatency(50)
+                .throughput(1024 * 1024);
+        Candidate bad = new Candidate("bad", "00:00:00:00:00:03", -60, 2412)
+                .probeLatency(5000)
+                .throughput(1024);
+
+        assertTrue(CandidateScorer.score(good) > CandidateScorer.score(unknown));
+        assertTrue(CandidateScorer.score(unknown) > CandidateScorer.score(bad));
+    }
+}
@@ -0,0 +1,87 @@
+package com.lukekorth.auto_fi.test;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import com.lukekorth.auto_fi.models.CaptivePortalPage;
+import com.lukekorth.auto_fi.network.CaptivePortalPageUploader;
+import com.lukekorth.auto_fi.network.ControlPlaneClient;
+import com.lukekorth.auto_fi.utilities.StreamUtils;
+
+import org.json.JSONArray;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import static junit.framework.Assert.assertEquals;
+
+@RunWith(AndroidJUnit4.class)
+public class CaptivePortalPageUploaderTest {
+
+    private LocalHttpServer mServer;
+
+    @Before
+    public void setup() throws Exception {
+        mServer = new LocalHttpServer();
+    }
+
+    @After
+    public void teardown() throws Exception {
+        mServer.shutdown();
+    }
+
+    @Test(timeout = 15000)
+    public void uploadsGzippedBatchesOverOneConnection() throws Exception {
+        List<CaptivePortalPage> pages = createPages(25);
+
+        List<CaptivePortalPage> uploaded = new CaptivePortalPageUploader(new ControlPlaneClient(mServer.getBaseUrl()))
+                .upload(pages);
+
+        assertEquals(25, uploaded.size());
+        assertEquals(3, mServer.getRequests().size());
+        assertEquals(1, mServer.getConnectionCount());
+
+        int records = 0;
+        for (LocalHttpServer.Request request : mServer.getRequests()) {
+            assertEquals("gzip", request.headers.get("content-encoding"));
+            assertEquals("chunked", request.headers.get("transfer-encoding"));
+            JSONArray batch = new JSONArray(StreamUtils.readStream(
+                    new GZIPInputStream(new ByteArrayInputStream(request.body))));
+            for (int i = 0; i < batch.length(); i++) {
+                assertEquals("<html>page " + records + "</html>", batch.getJSONObject(i).getString("html"));
+                assertEquals(2, batch.getJSONObject(i).getInt("hits"));
+                records++;
+            }
+        }
+        assertEquals(25, records);
+    }
+
+    @Test(timeout = 15000)
+    public void doesNotAcknowledgeFailedBatches() throws Exception {
+        mServer.setResponseCode(500);
+
+        List<CaptivePortalPage> uploaded = new CaptivePortalPageUploader(new ControlPlaneClient(mServer.getBaseUrl()))
+                .upload(createPages(5));
+
+        assertEquals(0, uploaded.size());
+        assertEquals(1, mServer.getRequests().size());
+    }
+
+    private List<CaptivePortalPage> createPages(int count) {
+        List<CaptivePortalPage> pages = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            CaptivePortalPage page = new CaptivePortalPage();
+            page.setHtml("<html>page " + i + "</html>");
+            page.setSimHash(i);
+            page.setHits(2);
+            pages.add(page);
+        }
+
+        return pages;
+    }
+}
@@ -0,0 +1,119 @@
+package com.lukekorth.auto_fi.test;
+
+import android.os.SystemClock;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.lukekorth.auto_fi.models.WifiNetwork;
+import com.lukekorth.auto_fi.utilities.BloomFilter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import io.realm.Realm;
+import io.realm.RealmConfiguration;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Compares checking every network in a scan against Realm with checking only the networks the
+ * excluded network {@link BloomFilter} can't rule out. Results are written to logcat under the
+ * ExcludedNetworkFilterBenchmark tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ExcludedNetworkFilterBenchmark {
+
+    private static final int EXCLUDED_NETWORKS = 10000;
+    private static final int SCAN_SIZE = 200;
+    private static final int EXCLUDED_IN_SCAN = 10;
+    private static final int ITERATIONS = 20;
+
+    private Realm mRealm;
+    private BloomFilter mFilter;
+    private List<String> mScan;
+
+    @Before
+    public void setup() {
+        mRealm = Realm.getInstance(new RealmConfiguration.Builder()
+                .name("excluded-network-benchmark.realm")
+                .inMemory()
+                .build());
+        mFilter = new BloomFilter(EXCLUDED_NETWORKS * 2, 0.01);
+
+        mRealm.beginTransaction();
+        for (int i = 0; i < EXCLUDED_NETWORKS; i++) {
+            String ssid = "\"excluded-" + i + "\"";
+            WifiNetwork network = mRealm.createObject(WifiNetwork.class);
+            network.setSSID(ssid);
+            network.setNeverUse(true);
+            mFilter.add(ssid);
+        }
+        mRealm.commitTransaction();
+
+        mScan = new ArrayList<>();
+        for (int i = 0; i < SCAN_SIZE; i++) {
+            mScan.add(i < EXCLUDED_IN_SCAN ? "\"excluded-" + (i * 997) + "\"" : "\"nearby-" + i + "\"");
+        }
+    }
+
+    @After
+    public void tearDown() {
+        mRealm.close();
+    }
+
+    @Test
+    public void realmOnly() {
+        long start = SystemClock.elapsedRealtimeNanos();
+        int excluded = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            excluded = 0;
+            for (String ssid : mScan) {
+                if (isExcluded(ssid)) {
+                    excluded++;
+                }
+            }
+        }
+
+        report("realm only", start);
+        assertEquals(EXCLUDED_IN_SCAN, excluded);
+    }
+
+    @Test
+    public void bloomFilterThenRealm() {
+        long start = SystemClock.elapsedRealtimeNanos();
+        int excluded = 0;
+        int queries = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            excluded = 0;
+            queries = 0;
+            for (String ssid : mScan) {
+                if (mFilter.mightContain(ssid)) {
+                    queries++;
+                    if (isExcluded(ssid)) {
+                        excluded++;
+                    }
+                }
+            }
+        }
+
+        report("bloom filter, " + queries + " of " + SCAN_SIZE + " networks queried", start);
+        assertEquals(EXCLUDED_IN_SCAN, excluded);
+        assertTrue(queries - EXCLUDED_IN_SCAN <= (SCAN_SIZE - EXCLUDED_IN_SCAN) / 20);
+    }
+
+    private boolean isExcluded(String ssid) {
+        WifiNetwork network = WifiNetwork.find(mRealm, ssid);
+        return network != null && (network.shouldNeverUse() || network.isBlacklisted());
+    }
+
+    private void report(String name, long start) {
+        long micros = (SystemClock.elapsedRealtimeNanos() - start) / 1000 / ITERATIONS;
+        Log.i("ExcludedNetworkFilterBenchmark", name + ": " + micros + "us per " + SCAN_SIZE + " network scan");
+    }
+}
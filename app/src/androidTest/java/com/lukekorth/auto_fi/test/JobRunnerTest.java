@@ -0,0 +1,90 @@
+package com.lukekorth.auto_fi.test;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import com.lukekorth.auto_fi.jobs.CancellationToken;
+import com.lukekorth.auto_fi.jobs.Job;
+import com.lukekorth.auto_fi.jobs.JobRunner;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class JobRunnerTest {
+
+    @Test
+    public void runsSubmittedJob() {
+        final AtomicBoolean ran = new AtomicBoolean();
+        CancellationToken token = JobRunner.submit(new JobRunner.Request("test", new Job() {
+            @Override
+            public void run(CancellationToken token) {
+                ran.set(true);
+            }
+        }));
+
+        assertNotNull(token);
+        assertTrue(token.await(1000));
+        assertTrue(ran.get());
+    }
+
+    @Test
+    public void cancelledJobIsSkipped() {
+        final AtomicBoolean ran = new AtomicBoolean();
+        CancellationToken token = JobRunner.submit(new JobRunner.Request("test", new Job() {
+            @Override
+            public void run(CancellationToken token) {
+                ran.set(true);
+            }
+        }).delay(100));
+
+        token.cancel();
+
+        assertTrue(token.await(1000));
+        assertFalse(ran.get());
+    }
+
+    @Test
+    public void expiredJobIsSkipped() {
+        final AtomicBoolean ran = new AtomicBoolean();
+        CancellationToken token = JobRunner.submit(new JobRunner.Request("test", new Job() {
+            @Override
+            public void run(CancellationToken token) {
+                ran.set(true);
+            }
+        }).delay(200).deadline(50));
+
+        assertTrue(token.await(1000));
+        assertTrue(token.isExpired());
+        assertFalse(ran.get());
+    }
+
+    @Test
+    public void singleFlightRefusesDuplicatesUntilFinished() {
+        final CountDownLatch release = new CountDownLatch(1);
+        Job blocking = new Job() {
+            @Override
+            public void run(CancellationToken token) throws InterruptedException {
+                release.await();
+            }
+        };
+
+        CancellationToken first = JobRunner.submit(new JobRunner.Request("test", blocking)
+                .singleFlight("single_flight_test"));
+        assertNotNull(first);
+        assertNull(JobRunner.submit(new JobRunner.Request("test", blocking)
+                .singleFlight("single_flight_test")));
+
+        release.countDown();
+        assertTrue(first.await(1000));
+        assertNotNull(JobRunner.submit(new JobRunner.Request("test", blocking)
+                .singleFlight("single_flight_test")));
+    }
+}
@@ -0,0 +1,62 @@
+package com.lukekorth.auto_fi.test;
+
+import android.os.SystemClock;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.lukekorth.auto_fi.openvpn.KeyPairPool;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.security.KeyPair;
+
+import static junit.framework.Assert.assertEquals;
+
+/**
+ * Compares key pair generation time for the algorithms supported by {@link KeyPairPool}. Results
+ * are written to logcat under the KeyGenerationBenchmark tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class KeyGenerationBenchmark {
+
+    private static final int ITERATIONS = 5;
+
+    @Test
+    public void rsa2048() throws Exception {
+        benchmark(KeyPairPool.Algorithm.RSA_2048);
+    }
+
+    @Test
+    public void rsa3072() throws Exception {
+        benchmark(KeyPairPool.Algorithm.RSA_3072);
+    }
+
+    @Test
+    public void ecP256() throws Exception {
+        benchmark(KeyPairPool.Algorithm.EC_P256);
+    }
+
+    private void benchmark(KeyPairPool.Algorithm algorithm) throws Exception {
+        // warm up the provider
+        KeyPairPool.generate(algorithm);
+
+        long min = Long.MAX_VALUE;
+        long max = 0;
+        long total = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            long start = SystemClock.elapsedRealtimeNanos();
+            KeyPair keyPair = KeyPairPool.generate(algorithm);
+            long duration = (SystemClock.elapsedRealtimeNanos() - start) / 1000000;
+
+            assertEquals(algorithm.getKeyAlgorithm(), keyPair.getPrivate().getAlgorithm());
+
+            min = Math.min(min, duration);
+            max = Math.max(max, duration);
+            total += duration;
+        }
+
+        Log.i("KeyGenerationBenchmark", algorithm + ": avg=" + (total / ITERATIONS) + "ms min=" + min +
+                "ms max=" + max + "ms");
+    }
+}
@@ -0,0 +1,155 @@
+package com.lukekorth.auto_fi.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Minimal keep-alive HTTP/1.1 server that records request bodies and answers every request with
+ * a fixed response code.
+ */
+public class LocalHttpServer {
+
+    public static class Request {
+        public Map<String, String> headers = new HashMap<>();
+        public byte[] body;
+    }
+
+    private final ServerSocket mServerSocket;
+    private final List<Request> mRequests = Collections.synchronizedList(new ArrayList<Request>());
+    private final AtomicInteger mConnections = new AtomicInteger();
+    private volatile int mResponseCode = 200;
+
+    public LocalHttpServer() throws IOException {
+        mServerSocket = new ServerSocket(0);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                acceptConnections();
+            }
+        }, "LocalHttpServer").start();
+    }
+
+    public String getBaseUrl() {
+        return "http://127.0.0.1:" + mServerSocket.getLocalPort();
+    }
+
+    public void setResponseCode(int responseCode) {
+        mResponseCode = responseCode;
+    }
+
+    public List<Request> getRequests() {
+        return mRequests;
+    }
+
+    public int getConnectionCount() {
+        return mConnections.get();
+    }
+
+    public void shutdown() throws IOException {
+        mServerSocket.close();
+    }
+
+    private void acceptConnections() {
+        while (!mServerSocket.isClosed()) {
+            try {
+                final Socket socket = mServerSocket.accept();
+                mConnections.incrementAndGet();
+                new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        handleConnection(socket);
+                    }
+                }).start();
+            } catch (IOException ignored) {}
+        }
+    }
+
+    private void handleConnection(Socket socket) {
+        try {
+            InputStream in = socket.getInputStream();
+            OutputStream out = socket.getOutputStream();
+            while (true) {
+                String requestLine = readLine(in);
+                if (requestLine == null || requestLine.isEmpty()) {
+                    break;
+                }
+
+                Request request = new Request();
+                for (String line = readLine(in); line != null && !line.isEmpty(); line = readLine(in)) {
+                    int colon = line.indexOf(':');
+                    request.headers.put(line.substring(0, colon).trim().toLowerCase(Locale.US),
+                            line.substring(colon + 1).trim());
+                }
+
+                if ("chunked".equalsIgnoreCase(request.headers.get("transfer-encoding"))) {
+                    request.body = readChunkedBody(in);
+                } else {
+                    String contentLength = request.headers.get("content-length");
+                    request.body = readFully(in, contentLength == null ? 0 : Integer.parseInt(contentLength));
+                }
+                mRequests.add(request);
+
+                out.write(("HTTP/1.1 " + mResponseCode + " OK\r\nContent-Length: 2\r\n\r\nOK")
+                        .getBytes("UTF-8"));
+                out.flush();
+            }
+        } catch (IOException ignored) {
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException ignored) {}
+        }
+    }
+
+    private static byte[] readChunkedBody(InputStream in) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        while (true) {
+            int size = Integer.parseInt(readLine(in).split(";")[0].trim(), 16);
+            if (size == 0) {
+                readLine(in);
+                return body.toByteArray();
+            }
+
+            body.write(readFully(in, size));
+            readLine(in);
+        }
+    }
+
+    private static byte[] readFully(InputStream in, int length) throws IOException {
+        byte[] buffer = new byte[length];
+        int offset = 0;
+        while (offset < length) {
+            int read = in.read(buffer, offset, length - offset);
+            if (read == -1) {
+                throw new IOException("Unexpected end of stream");
+            }
+            offset += read;
+        }
+
+        return buffer;
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        for (int c = in.read(); c != -1; c = in.read()) {
+            if (c == '\n') {
+                return line.toString();
+            } else if (c != '\r') {
+                line.append((char) c);
+            }
+        }
+
+        return line.length() == 0 ? null : line.toString();
+    }
+}
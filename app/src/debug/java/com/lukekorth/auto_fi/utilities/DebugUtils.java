@@ -3,14 +3,24 @@ package com.lukekorth.auto_fi.utilities;
 import android.content.Context;
 import android.os.StrictMode;
 
+import com.facebook.stetho.DumperPluginsProvider;
 import com.facebook.stetho.Stetho;
+import com.facebook.stetho.dumpapp.DumperPlugin;
 import com.uphyca.stetho_realm.RealmInspectorModulesProvider;
 
 public class DebugUtils {
 
-    public static void setup(Context context) {
+    public static void setup(final Context context) {
         Stetho.initialize(Stetho.newInitializerBuilder(context)
-                .enableDumpapp(Stetho.defaultDumperPluginsProvider(context))
+                .enableDumpapp(new DumperPluginsProvider() {
+                    @Override
+                    public Iterable<DumperPlugin> get() {
+                        return new Stetho.DefaultDumperPluginsBuilder(context)
+                                .provide(new MetricsDumperPlugin())
+                                .provide(new TracesDumperPlugin(context))
+                                .finish();
+                    }
+                })
                 .enableWebKitInspector(RealmInspectorModulesProvider.builder(context).build())
                 .build());
     }
@@ -0,0 +1,23 @@
+package com.lukekorth.auto_fi.utilities;
+
+import com.facebook.stetho.dumpapp.DumpException;
+import com.facebook.stetho.dumpapp.DumperContext;
+import com.facebook.stetho.dumpapp.DumperPlugin;
+
+import java.io.PrintWriter;
+
+/**
+ * Prints the {@link Metrics} registry with {@code ./dumpapp metrics}.
+ */
+public class MetricsDumperPlugin implements DumperPlugin {
+
+    @Override
+    public String getName() {
+        return "metrics";
+    }
+
+    @Override
+    public void dump(DumperContext dumpContext) throws DumpException {
+        Metrics.dump(new PrintWriter(dumpContext.getStdout()));
+    }
+}
@@ -0,0 +1,36 @@
+package com.lukekorth.auto_fi.utilities;
+
+import android.content.Context;
+
+import com.facebook.stetho.dumpapp.DumpException;
+import com.facebook.stetho.dumpapp.DumperContext;
+import com.facebook.stetho.dumpapp.DumperPlugin;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+
+/**
+ * Exports the stored connection traces as JSON with {@code ./dumpapp traces}.
+ */
+public class TracesDumperPlugin implements DumperPlugin {
+
+    private final Context mContext;
+
+    public TracesDumperPlugin(Context context) {
+        mContext = context;
+    }
+
+    @Override
+    public String getName() {
+        return "traces";
+    }
+
+    @Override
+    public void dump(DumperContext dumpContext) throws DumpException {
+        try {
+            TraceStore.export(mContext, new OutputStreamWriter(dumpContext.getStdout(), "UTF-8"));
+        } catch (IOException e) {
+            throw new DumpException(e.getMessage());
+        }
+    }
+}
@@ -21,6 +21,9 @@ AutoFi.log("Matched " + selectedElements.length + " elements");
 
 if (selectedElements.length > 0) {
     AutoFi.log("Clicking " + selectedElements[0]);
+    if (AutoFi.recordAction) {
+        AutoFi.recordAction(getSelector(selectedElements[0]), JSON.stringify(getCheckedFields()));
+    }
     selectedElements[0].click();
 }
 
@@ -55,3 +58,34 @@ function findElementsByText(elements, text) {
 
     return collectedElements;
 }
+
+function getSelector(element) {
+    var path = [];
+    while (element && element.nodeType === Node.ELEMENT_NODE) {
+        if (element.id) {
+            path.unshift("#" + CSS.escape(element.id));
+            break;
+        }
+
+        var selector = element.tagName.toLowerCase();
+        var index = 1;
+        for (var sibling = element.previousElementSibling; sibling; sibling = sibling.previousElementSibling) {
+            if (sibling.tagName === element.tagName) {
+                index++;
+            }
+        }
+        path.unshift(selector + ":nth-of-type(" + index + ")");
+        element = element.parentElement;
+    }
+
+    return path.join(" > ");
+}
+
+function getCheckedFields() {
+    var fields = [];
+    for (var i = 0; i < inputs.length; i++) {
+        fields.push(getSelector(inputs[i]));
+    }
+
+    return fields;
+}
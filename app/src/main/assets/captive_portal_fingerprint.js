@@ -0,0 +1,23 @@
+// identify a portal by the host it redirected to and the shape of its DOM, ignoring text
+// so that timestamps, session ids and MAC addresses in the page don't change the fingerprint
+(function() {
+    var structure = "";
+    var elements = document.body ? document.body.getElementsByTagName("*") : [];
+    for (var i = 0; i < elements.length; i++) {
+        structure += elements[i].tagName;
+        if (elements[i].id) {
+            structure += "#" + elements[i].id;
+        }
+        if (elements[i].name) {
+            structure += "[" + elements[i].name + "]";
+        }
+        structure += "|";
+    }
+
+    var hash = 0;
+    for (var j = 0; j < structure.length; j++) {
+        hash = ((hash << 5) - hash + structure.charCodeAt(j)) | 0;
+    }
+
+    return location.host + "|" + (hash >>> 0).toString(16);
+})();
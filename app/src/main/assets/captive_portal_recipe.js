@@ -0,0 +1,20 @@
+// replay a recipe that previously bypassed this captive portal
+var fields = <- form fields here ->;
+for (var i = 0; i < fields.length; i++) {
+    var field = document.querySelector(fields[i]);
+    if (field) {
+        field.checked = true;
+    }
+}
+
+var element = document.querySelector(<- selector here ->);
+var finalUrl = <- final url here ->;
+if (element) {
+    AutoFi.log("Replaying recipe, clicking " + element);
+    element.click();
+} else if (finalUrl) {
+    AutoFi.log("Recipe element not found, loading " + finalUrl);
+    location.href = finalUrl;
+} else {
+    AutoFi.log("Recipe element not found");
+}
@@ -4,16 +4,20 @@ import android.app.Application;
 import android.app.NotificationChannel;
 import android.app.NotificationManager;
 import android.content.Context;
-import android.content.Intent;
 import android.content.SharedPreferences;
 import android.os.Build;
 import android.preference.PreferenceManager;
 
+import com.lukekorth.auto_fi.jobs.OpenVpnConfigurationJob;
 import com.lukekorth.auto_fi.models.DataMigrations;
+import com.lukekorth.auto_fi.models.ExcludedNetworkFilter;
+import com.lukekorth.auto_fi.models.WifiNetworkRepository;
+import com.lukekorth.auto_fi.openvpn.KeyPairPool;
 import com.lukekorth.auto_fi.openvpn.OpenVpnConfiguration;
-import com.lukekorth.auto_fi.services.OpenVpnConfigurationIntentService;
+import com.lukekorth.auto_fi.services.DeferredJobService;
 import com.lukekorth.auto_fi.services.VpnService;
 import com.lukekorth.auto_fi.utilities.DebugUtils;
+import com.lukekorth.auto_fi.utilities.ScanScheduler;
 import com.lukekorth.mailable_log.MailableLog;
 
 import io.realm.Realm;
@@ -38,7 +42,7 @@ public class AutoFiApplication extends Application {
         Realm.init(this);
         RealmConfiguration realmConfiguration = new RealmConfiguration.Builder()
                 .name("auto-fi.realm")
-                .schemaVersion(2)
+                .schemaVersion(8)
                 .migration(new DataMigrations())
                 .build();
         Realm.setDefaultConfiguration(realmConfiguration);
@@ -47,6 +51,19 @@ public class AutoFiApplication extends Application {
 
         handleUpdate();
         createNotificationChannel();
+
+        ExcludedNetworkFilter.getInstance().start();
+        ScanScheduler.getInstance(this).start();
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+
+        // the process may be killed once it is in the background
+        if (level >= TRIM_MEMORY_UI_HIDDEN) {
+            WifiNetworkRepository.flush();
+        }
     }
 
     private void handleUpdate() {
@@ -56,9 +73,12 @@ public class AutoFiApplication extends Application {
                     .putString(VERSION, BuildConfig.VERSION_NAME)
                     .apply();
 
-            OpenVpnConfiguration.clearKeyPair(this);
-            startService(new Intent(this, OpenVpnConfigurationIntentService.class));
+            OpenVpnConfiguration.requestKeyRotation(this);
+            OpenVpnConfigurationJob.submit(this);
         }
+
+        KeyPairPool.schedule(this);
+        DeferredJobService.scheduleTrafficCompaction(this);
     }
 
     private void createNotificationChannel() {
@@ -15,8 +15,8 @@ import android.view.MenuInflater;
 import android.view.MenuItem;
 
 import com.google.firebase.analytics.FirebaseAnalytics;
+import com.lukekorth.auto_fi.jobs.OpenVpnConfigurationJob;
 import com.lukekorth.auto_fi.openvpn.OpenVpnConfiguration;
-import com.lukekorth.auto_fi.services.OpenVpnConfigurationIntentService;
 import com.lukekorth.auto_fi.utilities.LogReporting;
 import com.lukekorth.auto_fi.utilities.VpnHelper;
 
@@ -57,7 +57,7 @@ public class MainActivity extends AppCompatActivity {
         }
 
         if (!OpenVpnConfiguration.isSetup(this)) {
-            startService(new Intent(this, OpenVpnConfigurationIntentService.class));
+            OpenVpnConfigurationJob.submit(this);
         }
     }
 
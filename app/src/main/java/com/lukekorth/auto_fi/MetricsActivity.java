@@ -0,0 +1,71 @@
+package com.lukekorth.auto_fi;
+
+import android.os.Bundle;
+import android.os.Handler;
+import android.support.annotation.Nullable;
+import android.support.v7.app.AppCompatActivity;
+import android.view.MenuItem;
+import android.widget.TextView;
+
+import com.lukekorth.auto_fi.network.ControlPlaneClient;
+import com.lukekorth.auto_fi.utilities.Metrics;
+
+import java.util.Map;
+
+public class MetricsActivity extends AppCompatActivity {
+
+    private static final long REFRESH_INTERVAL = 1000;
+
+    private TextView mMetrics;
+    private Handler mHandler = new Handler();
+
+    private final Runnable mRefresh = new Runnable() {
+        @Override
+        public void run() {
+            refresh();
+            mHandler.postDelayed(this, REFRESH_INTERVAL);
+        }
+    };
+
+    @Override
+    protected void onCreate(@Nullable Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_metrics);
+        getSupportActionBar().setDisplayHomeAsUpEnabled(true);
+
+        mMetrics = findViewById(R.id.metrics);
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        mRefresh.run();
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        mHandler.removeCallbacks(mRefresh);
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        if (item.getItemId() == android.R.id.home) {
+            finish();
+            return true;
+        }
+
+        return super.onOptionsItemSelected(item);
+    }
+
+    private void refresh() {
+        StringBuilder metrics = new StringBuilder(Metrics.dump());
+        metrics.append("Server requests\n");
+        for (Map.Entry<String, ControlPlaneClient.RequestMetrics> path :
+                ControlPlaneClient.getInstance().getMetrics().entrySet()) {
+            metrics.append("  ").append(path.getKey()).append(": ").append(path.getValue()).append("\n");
+        }
+
+        mMetrics.setText(metrics);
+    }
+}
@@ -1,10 +1,15 @@
 package com.lukekorth.auto_fi;
 
+import android.content.Context;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.preference.Preference;
 import android.preference.PreferenceFragment;
 
 import com.lukekorth.auto_fi.models.DataUsage;
+import com.lukekorth.auto_fi.models.Database;
+import com.lukekorth.auto_fi.models.TrafficBucket;
 import com.lukekorth.auto_fi.models.WifiNetwork;
 import com.lukekorth.auto_fi.utilities.VpnHelper;
 
@@ -14,19 +19,42 @@ import fr.nicolaspomepuy.discreetapprate.AppRate;
 import fr.nicolaspomepuy.discreetapprate.RetryPolicy;
 import io.realm.Realm;
 import io.realm.RealmChangeListener;
+import io.realm.RealmResults;
 
-public class SettingsFragment extends PreferenceFragment implements RealmChangeListener<Realm> {
+public class SettingsFragment extends PreferenceFragment {
 
-    private Realm mRealm;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private Context mContext;
     private Preference mWifiNetworksUsed;
     private Preference mDataUsage;
+    private boolean mResumed;
+
+    // only used on the database thread
+    private RealmResults<WifiNetwork> mConnectedNetworks;
+    private RealmResults<TrafficBucket> mTrafficBuckets;
+
+    private final RealmChangeListener<RealmResults<WifiNetwork>> mConnectedNetworksListener =
+            new RealmChangeListener<RealmResults<WifiNetwork>>() {
+                @Override
+                public void onChange(RealmResults<WifiNetwork> connectedNetworks) {
+                    setSummary(mWifiNetworksUsed, Integer.toString(connectedNetworks.size()));
+                }
+            };
+
+    private final RealmChangeListener<RealmResults<TrafficBucket>> mTrafficBucketsListener =
+            new RealmChangeListener<RealmResults<TrafficBucket>>() {
+                @Override
+                public void onChange(RealmResults<TrafficBucket> trafficBuckets) {
+                    updateDataUsage();
+                }
+            };
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         addPreferencesFromResource(R.xml.settings);
 
-        mRealm = Realm.getDefaultInstance();
+        mContext = getActivity().getApplicationContext();
         mWifiNetworksUsed = findPreference("wifi_networks_used");
         mDataUsage = findPreference("data_usage");
 
@@ -47,20 +75,42 @@ public class SettingsFragment extends PreferenceFragment implements RealmChangeL
     @Override
     public void onResume() {
         super.onResume();
-        mRealm.addChangeListener(this);
-        onChange(null);
+        mResumed = true;
+
+        Database.getInstance().post(new Database.Query<Void>() {
+            @Override
+            public Void run(Realm realm) {
+                mConnectedNetworks = realm.where(WifiNetwork.class)
+                        .equalTo("connectedToVpn", true)
+                        .findAllAsync();
+                mConnectedNetworks.addChangeListener(mConnectedNetworksListener);
+
+                mTrafficBuckets = realm.where(TrafficBucket.class).findAllAsync();
+                mTrafficBuckets.addChangeListener(mTrafficBucketsListener);
+                return null;
+            }
+        });
     }
 
     @Override
     public void onPause() {
         super.onPause();
-        mRealm.removeChangeListener(this);
-    }
-
-    @Override
-    public void onDestroy() {
-        super.onDestroy();
-        mRealm.close();
+        mResumed = false;
+
+        Database.getInstance().post(new Database.Query<Void>() {
+            @Override
+            public Void run(Realm realm) {
+                if (mConnectedNetworks != null) {
+                    mConnectedNetworks.removeChangeListener(mConnectedNetworksListener);
+                    mConnectedNetworks = null;
+                }
+                if (mTrafficBuckets != null) {
+                    mTrafficBuckets.removeChangeListener(mTrafficBucketsListener);
+                    mTrafficBuckets = null;
+                }
+                return null;
+            }
+        });
     }
 
     private void setupDebugPreferences() {
@@ -77,24 +127,41 @@ public class SettingsFragment extends PreferenceFragment implements RealmChangeL
         }
     }
 
-    private static String humanReadableByteCount(long kilobytes) {
-        if (kilobytes == 0) {
-            return "0 B";
+    private static String humanReadableByteCount(long bytes) {
+        if (bytes < 1024) {
+            return bytes + " B";
         }
 
-        long bytes = kilobytes * 1024;
         int exp = (int) (Math.log(bytes) / Math.log(1024));
         String pre = String.valueOf(("KMGTPE").charAt(exp - 1));
         return String.format(Locale.getDefault(), "%.1f %sB", bytes / Math.pow(1024, exp), pre);
     }
 
-    @Override
-    public void onChange(Realm element) {
-        long wifiNetworksUsed = mRealm.where(WifiNetwork.class)
-                .equalTo("connectedToVpn", true)
-                .count();
-        mWifiNetworksUsed.setSummary(Long.toString(wifiNetworksUsed));
+    private void updateDataUsage() {
+        setSummary(mDataUsage, Database.getInstance().get(new Database.Query<String>() {
+            @Override
+            public String run(Realm realm) {
+                TrafficBucket.Summary lastDay = TrafficBucket.getSummary(realm, null,
+                        System.currentTimeMillis() - TrafficBucket.DAY);
+                return mContext.getString(R.string.data_usage_summary,
+                        humanReadableByteCount(DataUsage.getTotalBytes(realm)),
+                        humanReadableByteCount(lastDay.getTotalBytes()));
+            }
+        }));
+    }
 
-        mDataUsage.setSummary(humanReadableByteCount(DataUsage.getUsage(mRealm).getKilobytes()));
+    /**
+     * Sets the summary of {@code preference} on the main thread unless the fragment has been
+     * paused since.
+     */
+    private void setSummary(final Preference preference, final String summary) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mResumed) {
+                    preference.setSummary(summary);
+                }
+            }
+        });
     }
 }
@@ -12,9 +12,7 @@ import android.view.MenuItem;
 
 import com.lukekorth.auto_fi.adapters.WifiNetworksAdapter;
 import com.lukekorth.auto_fi.models.Settings;
-import com.lukekorth.auto_fi.models.WifiNetwork;
-
-import io.realm.Realm;
+import com.lukekorth.auto_fi.models.WifiNetworkRepository;
 
 public class WifiNetworksActivity extends AppCompatActivity {
 
@@ -77,23 +75,11 @@ public class WifiNetworksActivity extends AppCompatActivity {
 
     @Override
     public boolean onContextItemSelected(MenuItem item) {
-        Realm realm = Realm.getDefaultInstance();
         if (item.getTitle().equals(getString(R.string.use))) {
-            WifiNetwork network = mAdapter.getNetwork(item.getItemId());
-            realm.beginTransaction();
-            network.setNeverUse(false);
-            network.setBlacklistedTimestamp(0);
-            realm.commitTransaction();
-            realm.close();
-
+            WifiNetworkRepository.use(mAdapter.getNetwork(item.getItemId()).getSSID());
             return true;
         } else if (item.getTitle().equals(getString(R.string.never_use))) {
-            WifiNetwork network = mAdapter.getNetwork(item.getItemId());
-            realm.beginTransaction();
-            network.setNeverUse(true);
-            realm.commitTransaction();
-            realm.close();
-
+            WifiNetworkRepository.neverUse(mAdapter.getNetwork(item.getItemId()).getSSID());
             return true;
         }
 
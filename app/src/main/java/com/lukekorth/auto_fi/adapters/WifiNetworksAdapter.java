@@ -1,7 +1,12 @@
 package com.lukekorth.auto_fi.adapters;
 
 import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.Nullable;
+import android.support.v7.util.DiffUtil;
 import android.support.v7.widget.RecyclerView;
+import android.text.TextUtils;
 import android.view.ContextMenu;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -10,8 +15,13 @@ import android.widget.ImageView;
 import android.widget.TextView;
 
 import com.lukekorth.auto_fi.R;
+import com.lukekorth.auto_fi.models.Database;
 import com.lukekorth.auto_fi.models.WifiNetwork;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 import io.realm.Realm;
 import io.realm.RealmChangeListener;
 import io.realm.RealmResults;
@@ -20,18 +30,34 @@ import io.realm.Sort;
 import static android.view.View.GONE;
 import static android.view.View.VISIBLE;
 
-public class WifiNetworksAdapter extends RecyclerView.Adapter<WifiNetworksAdapter.ViewHolder>
-        implements RealmChangeListener<RealmResults<WifiNetwork>> {
+/**
+ * Shows the networks that have been connected to or blacklisted. Rows are built from Realm on the
+ * {@link Database} thread and diffed there against the previous rows, so binding a row is only
+ * setting views.
+ */
+public class WifiNetworksAdapter extends RecyclerView.Adapter<WifiNetworksAdapter.ViewHolder> {
+
+    private final Context mContext;
+    private final LayoutInflater mLayoutInflater;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private List<Row> mRows = Collections.emptyList();
+    private boolean mTornDown;
 
-    private Context mContext;
-    private LayoutInflater mLayoutInflater;
-    private Realm mRealm;
+    // only used on the database thread
     private RealmResults<WifiNetwork> mWifiNetworks;
+    private List<Row> mLatestRows = Collections.emptyList();
+
+    private final RealmChangeListener<RealmResults<WifiNetwork>> mWifiNetworksListener =
+            new RealmChangeListener<RealmResults<WifiNetwork>>() {
+                @Override
+                public void onChange(RealmResults<WifiNetwork> wifiNetworks) {
+                    updateRows(wifiNetworks);
+                }
+            };
 
     public WifiNetworksAdapter(Context context) {
-        mContext = context;
-        mLayoutInflater = LayoutInflater.from(mContext);
-        mRealm = Realm.getDefaultInstance();
+        mContext = context.getApplicationContext();
+        mLayoutInflater = LayoutInflater.from(context);
         sortByTime();
     }
 
@@ -44,31 +70,59 @@ public class WifiNetworksAdapter extends RecyclerView.Adapter<WifiNetworksAdapte
     }
 
     public void teardown() {
-        mWifiNetworks.removeChangeListener(this);
-        mRealm.close();
+        mTornDown = true;
+        Database.getInstance().post(new Database.Query<Void>() {
+            @Override
+            public Void run(Realm realm) {
+                if (mWifiNetworks != null) {
+                    mWifiNetworks.removeChangeListener(mWifiNetworksListener);
+                    mWifiNetworks = null;
+                }
+                return null;
+            }
+        });
     }
 
-    private void getWifiNetworks(String sortingField, Sort sortOrder) {
-        if (mWifiNetworks != null) {
-            mWifiNetworks.removeChangeListener(this);
-        }
-
-        mWifiNetworks = mRealm.where(WifiNetwork.class)
-                .not()
-                .equalTo("ssid", "\"\"")
-                .equalTo("connectedToVpn", true)
-                .or()
-                .greaterThan("blacklistedTimestamp", 0)
-                .sort(sortingField, sortOrder)
-                .findAll();
+    private void getWifiNetworks(final String sortingField, final Sort sortOrder) {
+        Database.getInstance().post(new Database.Query<Void>() {
+            @Override
+            public Void run(Realm realm) {
+                if (mWifiNetworks != null) {
+                    mWifiNetworks.removeChangeListener(mWifiNetworksListener);
+                }
 
-        mWifiNetworks.addChangeListener(this);
-        notifyDataSetChanged();
+                mWifiNetworks = realm.where(WifiNetwork.class)
+                        .not()
+                        .equalTo("ssid", "\"\"")
+                        .equalTo("connectedToVpn", true)
+                        .or()
+                        .greaterThan("blacklistedTimestamp", 0)
+                        .sort(sortingField, sortOrder)
+                        .findAllAsync();
+                mWifiNetworks.addChangeListener(mWifiNetworksListener);
+                return null;
+            }
+        });
     }
 
-    @Override
-    public void onChange(RealmResults<WifiNetwork> element) {
-        notifyDataSetChanged();
+    private void updateRows(RealmResults<WifiNetwork> wifiNetworks) {
+        final List<Row> rows = new ArrayList<>(wifiNetworks.size());
+        for (WifiNetwork network : wifiNetworks) {
+            rows.add(new Row(mContext, network));
+        }
+
+        final DiffUtil.DiffResult diff = DiffUtil.calculateDiff(new RowDiff(mLatestRows, rows));
+        mLatestRows = rows;
+
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!mTornDown) {
+                    mRows = rows;
+                    diff.dispatchUpdatesTo(WifiNetworksAdapter.this);
+                }
+            }
+        });
     }
 
     @Override
@@ -78,29 +132,117 @@ public class WifiNetworksAdapter extends RecyclerView.Adapter<WifiNetworksAdapte
 
     @Override
     public void onBindViewHolder(WifiNetworksAdapter.ViewHolder holder, int position) {
-        WifiNetwork network = mWifiNetworks.get(position);
+        Row row = mRows.get(position);
 
-        holder.icon.setImageResource(WifiNetwork.isBlacklisted(network.getSSID()) ? R.drawable.ic_wifi_off : R.drawable.ic_wifi);
-        holder.ssid.setText(network.getSSID().replace("\"", ""));
+        holder.icon.setImageResource(row.isBlacklisted() ? R.drawable.ic_wifi_off : R.drawable.ic_wifi);
+        holder.ssid.setText(row.getDisplaySSID());
 
-        if (WifiNetwork.isBlacklisted(network.getSSID()) && !network.shouldNeverUse()) {
+        if (row.getBlacklistedUntil() != null) {
             holder.blacklisted.setVisibility(VISIBLE);
-            holder.blacklisted.setText(mContext.getString(R.string.blacklisted_until,
-                    WifiNetwork.blacklistedUntil(mContext, network)));
+            holder.blacklisted.setText(row.getBlacklistedUntil());
         } else {
             holder.blacklisted.setVisibility(GONE);
         }
 
-        holder.neverConnect.setVisibility(network.shouldNeverUse() ? VISIBLE : GONE);
+        holder.neverConnect.setVisibility(row.shouldNeverUse() ? VISIBLE : GONE);
     }
 
-    public WifiNetwork getNetwork(int position) {
-        return mWifiNetworks.get(position);
+    public Row getNetwork(int position) {
+        return mRows.get(position);
     }
 
     @Override
     public int getItemCount() {
-        return mWifiNetworks.size();
+        return mRows.size();
+    }
+
+    /**
+     * Immutable snapshot of what a row shows for a {@link WifiNetwork}.
+     */
+    public static class Row {
+
+        private final String mSsid;
+        private final String mDisplaySsid;
+        private final boolean mBlacklisted;
+        private final boolean mNeverUse;
+        private final String mBlacklistedUntil;
+
+        Row(Context context, WifiNetwork network) {
+            mSsid = network.getSSID();
+            mDisplaySsid = mSsid.replace("\"", "");
+            mBlacklisted = network.isBlacklisted();
+            mNeverUse = network.shouldNeverUse();
+            if (mBlacklisted && !mNeverUse) {
+                mBlacklistedUntil = context.getString(R.string.blacklisted_until,
+                        WifiNetwork.blacklistedUntil(context, network));
+            } else {
+                mBlacklistedUntil = null;
+            }
+        }
+
+        /**
+         * @return the quoted SSID
+         */
+        public String getSSID() {
+            return mSsid;
+        }
+
+        public String getDisplaySSID() {
+            return mDisplaySsid;
+        }
+
+        public boolean isBlacklisted() {
+            return mBlacklisted;
+        }
+
+        public boolean shouldNeverUse() {
+            return mNeverUse;
+        }
+
+        /**
+         * @return when the blacklist expires, or null if the row shouldn't show it
+         */
+        @Nullable
+        public String getBlacklistedUntil() {
+            return mBlacklistedUntil;
+        }
+
+        boolean hasSameContents(Row other) {
+            return mDisplaySsid.equals(other.mDisplaySsid) && mBlacklisted == other.mBlacklisted &&
+                    mNeverUse == other.mNeverUse &&
+                    TextUtils.equals(mBlacklistedUntil, other.mBlacklistedUntil);
+        }
+    }
+
+    private static class RowDiff extends DiffUtil.Callback {
+
+        private final List<Row> mOldRows;
+        private final List<Row> mNewRows;
+
+        RowDiff(List<Row> oldRows, List<Row> newRows) {
+            mOldRows = oldRows;
+            mNewRows = newRows;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return mOldRows.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return mNewRows.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldPosition, int newPosition) {
+            return mOldRows.get(oldPosition).getSSID().equals(mNewRows.get(newPosition).getSSID());
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldPosition, int newPosition) {
+            return mOldRows.get(oldPosition).hasSameContents(mNewRows.get(newPosition));
+        }
     }
 
     static class ViewHolder extends RecyclerView.ViewHolder implements View.OnCreateContextMenuListener {
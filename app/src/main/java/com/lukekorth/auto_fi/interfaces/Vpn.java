@@ -9,4 +9,7 @@ public interface Vpn {
 
     @MainThread
     void stop();
+
+    @MainThread
+    void releaseHold();
 }
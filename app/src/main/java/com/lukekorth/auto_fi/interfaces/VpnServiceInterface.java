@@ -1,11 +1,13 @@
 package com.lukekorth.auto_fi.interfaces;
 
 import android.net.VpnService;
+import android.support.annotation.Nullable;
 
 import com.lukekorth.auto_fi.utilities.WifiHelper;
 
 public interface VpnServiceInterface {
     WifiHelper getWifiHelper();
+    @Nullable String getTraceId();
     VpnService.Builder getBuilder();
     boolean protect(int fileDescriptor);
     void successfullyConnected();
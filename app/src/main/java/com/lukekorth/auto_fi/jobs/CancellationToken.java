@@ -0,0 +1,86 @@
+package com.lukekorth.auto_fi.jobs;
+
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Handle to a submitted {@link Job}. A job is cancelled either explicitly with {@link #cancel()}
+ * or implicitly once its deadline has passed.
+ */
+public class CancellationToken {
+
+    private final long mDeadline;
+    private final CountDownLatch mFinished = new CountDownLatch(1);
+    private final List<Runnable> mListeners = new ArrayList<>();
+    private volatile boolean mCancelled;
+
+    /**
+     * @param deadline {@link SystemClock#elapsedRealtime()} after which the job is cancelled, or 0
+     *                 for no deadline
+     */
+    CancellationToken(long deadline) {
+        mDeadline = deadline;
+    }
+
+    public void cancel() {
+        mCancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return mCancelled || isExpired();
+    }
+
+    public boolean isExpired() {
+        return mDeadline != 0 && SystemClock.elapsedRealtime() > mDeadline;
+    }
+
+    public boolean isFinished() {
+        return mFinished.getCount() == 0;
+    }
+
+    /**
+     * Blocks until the job has run, been skipped or failed.
+     *
+     * @return true if the job finished within {@code timeoutMillis}
+     */
+    public boolean await(long timeoutMillis) {
+        try {
+            return mFinished.await(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Runs {@code listener} once the job has run, been skipped or failed, on the thread that
+     * finished it, or right away if it already has.
+     */
+    public void addFinishedListener(Runnable listener) {
+        synchronized (mListeners) {
+            if (!isFinished()) {
+                mListeners.add(listener);
+                return;
+            }
+        }
+
+        listener.run();
+    }
+
+    void finish() {
+        List<Runnable> listeners;
+        synchronized (mListeners) {
+            mFinished.countDown();
+            listeners = new ArrayList<>(mListeners);
+            mListeners.clear();
+        }
+
+        for (Runnable listener : listeners) {
+            listener.run();
+        }
+    }
+}
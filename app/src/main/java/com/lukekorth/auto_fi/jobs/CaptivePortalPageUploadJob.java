@@ -0,0 +1,32 @@
+package com.lukekorth.auto_fi.jobs;
+
+import com.lukekorth.auto_fi.models.CaptivePortalPage;
+import com.lukekorth.auto_fi.network.CaptivePortalPageUploader;
+import com.lukekorth.auto_fi.utilities.Logger;
+
+import java.util.List;
+
+import io.realm.Realm;
+import io.realm.RealmResults;
+
+public class CaptivePortalPageUploadJob implements Job {
+
+    @Override
+    public void run(CancellationToken token) {
+        // Pages are read lazily from Realm while uploading, outside of any transaction, so only
+        // the page currently being written is held in memory
+        Realm realm = Realm.getDefaultInstance();
+
+        CaptivePortalPage.mergeNearDuplicates(realm);
+
+        RealmResults<CaptivePortalPage> pages = CaptivePortalPage.getStoredPages(realm);
+        if (!pages.isEmpty()) {
+            List<CaptivePortalPage> uploaded = new CaptivePortalPageUploader().upload(pages);
+            Logger.debug("Uploaded " + uploaded.size() + " of " + pages.size() + " captive portal pages");
+
+            CaptivePortalPage.delete(realm, uploaded);
+        }
+
+        realm.close();
+    }
+}
@@ -0,0 +1,102 @@
+package com.lukekorth.auto_fi.jobs;
+
+import android.content.Context;
+import android.content.Intent;
+import android.support.annotation.Nullable;
+
+import com.lukekorth.auto_fi.models.Settings;
+import com.lukekorth.auto_fi.models.WifiNetworkRepository;
+import com.lukekorth.auto_fi.services.CaptivePortalBypassService;
+import com.lukekorth.auto_fi.utilities.ConnectivityUtils;
+import com.lukekorth.auto_fi.utilities.Logger;
+import com.lukekorth.auto_fi.utilities.SingleFlight;
+import com.lukekorth.auto_fi.utilities.Tracer;
+import com.lukekorth.auto_fi.utilities.VpnHelper;
+import com.lukekorth.auto_fi.utilities.WifiHelper;
+
+import java.util.concurrent.TimeUnit;
+
+public class ConnectivityCheckJob implements Job {
+
+    public static final long DEADLINE = TimeUnit.SECONDS.toMillis(30);
+
+    private final Context mContext;
+    private final String mTraceId;
+
+    /**
+     * Checks connectivity of the network identified by {@code bssid} in the critical lane, unless
+     * a check for it is already queued or running.
+     *
+     * @return a token to wait for the check, or null if a check is already in flight
+     */
+    @Nullable
+    public static CancellationToken submit(Context context, String bssid, @Nullable String traceId) {
+        return JobRunner.submit(new JobRunner.Request("connectivity_check",
+                new ConnectivityCheckJob(context.getApplicationContext(), traceId))
+                .deadline(DEADLINE)
+                .singleFlight(getKey(bssid)));
+    }
+
+    public static boolean isRunning(String bssid) {
+        return SingleFlight.isRunning(getKey(bssid));
+    }
+
+    private static String getKey(String bssid) {
+        return "connectivity_check:" + bssid;
+    }
+
+    private ConnectivityCheckJob(Context context, @Nullable String traceId) {
+        mContext = context;
+        mTraceId = traceId;
+    }
+
+    @Override
+    public void run(CancellationToken token) {
+        try {
+            check(token);
+        } finally {
+            // the blacklist and probe results are read by the next scan right away
+            WifiNetworkRepository.flush();
+        }
+    }
+
+    private void check(CancellationToken token) {
+        ConnectivityUtils.ConnectivityState state = ConnectivityUtils.checkConnectivity(mContext);
+
+        // the probe can take most of the deadline, don't act on a result nobody is waiting for
+        if (token.isCancelled()) {
+            Logger.info("Connectivity check " + (token.isExpired() ? "passed its deadline" : "was cancelled") +
+                    ", ignoring " + state);
+            Tracer.finish(mContext, mTraceId, "connectivity_check_cancelled");
+            return;
+        }
+
+        switch (state) {
+            case CONNECTED: {
+                if (Settings.autoConnectToVpn(mContext)) {
+                    Tracer.mark(mTraceId, "vpn_start");
+                    VpnHelper.startVpn(mContext, mTraceId);
+                } else {
+                    Tracer.finish(mContext, mTraceId, "connected_without_vpn");
+                }
+                break;
+            } case REDIRECTED: {
+                if (Settings.bypassCaptivePortals(mContext)) {
+                    Tracer.mark(mTraceId, "captive_portal_bypass");
+                    mContext.startService(Tracer.attach(
+                            new Intent(mContext, CaptivePortalBypassService.class), mTraceId));
+                } else {
+                    Tracer.finish(mContext, mTraceId, "redirected");
+                    new WifiHelper(mContext).blacklistAndDisconnectFromCurrentNetwork();
+                }
+                break;
+            } case NO_CONNECTIVITY: {
+                Tracer.finish(mContext, mTraceId, "no_connectivity");
+                new WifiHelper(mContext).blacklistAndDisconnectFromCurrentNetwork();
+                break;
+            }
+        }
+
+        new WifiHelper(mContext).cleanupSavedNetworks();
+    }
+}
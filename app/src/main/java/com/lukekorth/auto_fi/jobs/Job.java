@@ -0,0 +1,16 @@
+package com.lukekorth.auto_fi.jobs;
+
+import android.support.annotation.WorkerThread;
+
+/**
+ * A unit of background work run by {@link JobRunner}.
+ */
+public interface Job {
+
+    /**
+     * Long running jobs should check {@link CancellationToken#isCancelled()} between steps and
+     * return early once it is set.
+     */
+    @WorkerThread
+    void run(CancellationToken token) throws Exception;
+}
@@ -0,0 +1,184 @@
+package com.lukekorth.auto_fi.jobs;
+
+import android.os.Process;
+import android.os.SystemClock;
+import android.support.annotation.Nullable;
+
+import com.lukekorth.auto_fi.utilities.Logger;
+import com.lukekorth.auto_fi.utilities.Metrics;
+import com.lukekorth.auto_fi.utilities.SingleFlight;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the app's short lived background work in two priority lanes. Work that a connection
+ * attempt is waiting on runs in the {@link Lane#CRITICAL} lane, everything else runs in the
+ * {@link Lane#DEFERRABLE} lane at background thread priority so it never competes with it.
+ * Deferrable work that should wait for the device to be idle, charging or online is scheduled with
+ * {@link com.lukekorth.auto_fi.services.DeferredJobService} first.
+ *
+ * For each job type the time spent waiting in the queue and running is recorded in
+ * {@link Metrics} as {@code jobs.<type>.queue_ms} and {@code jobs.<type>.run_ms}.
+ */
+public class JobRunner {
+
+    public enum Lane {
+        CRITICAL(2, Process.THREAD_PRIORITY_DEFAULT),
+        DEFERRABLE(1, Process.THREAD_PRIORITY_BACKGROUND);
+
+        private final ExecutorService mExecutor;
+
+        Lane(int threads, final int priority) {
+            final String name = "JobRunner-" + name().toLowerCase();
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                        private final AtomicInteger mCount = new AtomicInteger();
+
+                        @Override
+                        public Thread newThread(final Runnable runnable) {
+                            return new Thread(new Runnable() {
+                                @Override
+                                public void run() {
+                                    Process.setThreadPriority(priority);
+                                    runnable.run();
+                                }
+                            }, name + "-" + mCount.incrementAndGet());
+                        }
+                    });
+            executor.allowCoreThreadTimeOut(true);
+            mExecutor = executor;
+        }
+    }
+
+    private static final ScheduledThreadPoolExecutor sTimer = new ScheduledThreadPoolExecutor(1);
+
+    static {
+        sTimer.setRemoveOnCancelPolicy(true);
+    }
+
+    public static class Request {
+
+        private final String mType;
+        private final Job mJob;
+        private Lane mLane = Lane.CRITICAL;
+        private long mDelay;
+        private long mDeadline;
+        private String mSingleFlightKey;
+
+        /**
+         * @param type names the job in logs and metrics
+         */
+        public Request(String type, Job job) {
+            mType = type;
+            mJob = job;
+        }
+
+        public Request lane(Lane lane) {
+            mLane = lane;
+            return this;
+        }
+
+        public Request delay(long delayMillis) {
+            mDelay = delayMillis;
+            return this;
+        }
+
+        /**
+         * @param deadlineMillis time from submission after which the job is cancelled, whether it
+         *                       is still queued or already running
+         */
+        public Request deadline(long deadlineMillis) {
+            mDeadline = deadlineMillis;
+            return this;
+        }
+
+        /**
+         * Refuse the request while another job with the same key is queued or running.
+         */
+        public Request singleFlight(String key) {
+            mSingleFlightKey = key;
+            return this;
+        }
+    }
+
+    private static class Task implements Runnable {
+
+        private final Request mRequest;
+        private final CancellationToken mToken;
+        private long mQueuedAt;
+
+        private Task(Request request, CancellationToken token) {
+            mRequest = request;
+            mToken = token;
+        }
+
+        private void enqueue() {
+            mQueuedAt = SystemClock.elapsedRealtime();
+            mRequest.mLane.mExecutor.execute(this);
+        }
+
+        @Override
+        public void run() {
+            String prefix = "jobs." + mRequest.mType + ".";
+            try {
+                if (mToken.isCancelled()) {
+                    Logger.debug("Skipping " + mRequest.mType + " job, " +
+                            (mToken.isExpired() ? "deadline passed" : "cancelled"));
+                    Metrics.increment(prefix + (mToken.isExpired() ? "expired" : "cancelled"));
+                    return;
+                }
+
+                long startedAt = SystemClock.elapsedRealtime();
+                Metrics.histogram(prefix + "queue_ms").record(startedAt - mQueuedAt);
+                try {
+                    mRequest.mJob.run(mToken);
+                } catch (Exception e) {
+                    Logger.error(e);
+                    Metrics.increment(prefix + "failed");
+                }
+                Metrics.histogram(prefix + "run_ms").record(SystemClock.elapsedRealtime() - startedAt);
+            } finally {
+                if (mRequest.mSingleFlightKey != null) {
+                    SingleFlight.release(mRequest.mSingleFlightKey);
+                }
+                mToken.finish();
+            }
+        }
+    }
+
+    /**
+     * @return a token to cancel or wait for the job, or null if the request has a single flight
+     *         key that is already in flight
+     */
+    @Nullable
+    public static CancellationToken submit(Request request) {
+        if (request.mSingleFlightKey != null && !SingleFlight.tryAcquire(request.mSingleFlightKey)) {
+            Logger.debug("Not submitting " + request.mType + " job, " + request.mSingleFlightKey +
+                    " is already in flight");
+            return null;
+        }
+
+        long deadline = request.mDeadline == 0 ? 0 : SystemClock.elapsedRealtime() + request.mDeadline;
+        CancellationToken token = new CancellationToken(deadline);
+        final Task task = new Task(request, token);
+
+        if (request.mDelay > 0) {
+            sTimer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    task.enqueue();
+                }
+            }, request.mDelay, TimeUnit.MILLISECONDS);
+        } else {
+            task.enqueue();
+        }
+
+        return token;
+    }
+}
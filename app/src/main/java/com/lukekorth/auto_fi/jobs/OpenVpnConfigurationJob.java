@@ -1,12 +1,12 @@
-package com.lukekorth.auto_fi.services;
+package com.lukekorth.auto_fi.jobs;
 
-import android.app.IntentService;
-import android.content.Intent;
+import android.content.Context;
 
 import com.lukekorth.auto_fi.BuildConfig;
+import com.lukekorth.auto_fi.network.ControlPlaneClient;
+import com.lukekorth.auto_fi.openvpn.KeyPairPool;
 import com.lukekorth.auto_fi.openvpn.OpenVpnConfiguration;
 import com.lukekorth.auto_fi.utilities.Logger;
-import com.lukekorth.auto_fi.utilities.StreamUtils;
 
 import org.spongycastle.operator.jcajce.JcaContentSignerBuilder;
 import org.spongycastle.pkcs.PKCS10CertificationRequest;
@@ -16,45 +16,54 @@ import org.spongycastle.util.io.pem.PemObject;
 import org.spongycastle.util.io.pem.PemWriter;
 
 import java.io.IOException;
-import java.io.OutputStreamWriter;
 import java.io.StringWriter;
-import java.io.Writer;
-import java.net.HttpURLConnection;
-import java.net.URL;
 import java.security.KeyPair;
-import java.security.KeyPairGenerator;
 import java.util.UUID;
 
 import javax.security.auth.x500.X500Principal;
 
 import static java.net.HttpURLConnection.HTTP_OK;
 
-public class OpenVpnConfigurationIntentService extends IntentService {
+/**
+ * Exchanges a certificate signing request for the VPN client certificate.
+ */
+public class OpenVpnConfigurationJob implements Job {
 
-    public OpenVpnConfigurationIntentService() {
-        super(OpenVpnConfigurationIntentService.class.getName());
+    private final Context mContext;
+
+    /**
+     * Configures the VPN in the critical lane, unless it is already being configured.
+     */
+    public static void submit(Context context) {
+        JobRunner.submit(new JobRunner.Request("openvpn_configuration",
+                new OpenVpnConfigurationJob(context.getApplicationContext()))
+                .singleFlight("openvpn_configuration"));
+    }
+
+    private OpenVpnConfigurationJob(Context context) {
+        mContext = context;
     }
 
     @Override
-    protected void onHandleIntent(Intent intent) {
-        if (OpenVpnConfiguration.isSetup(this)) {
+    public void run(CancellationToken token) {
+        if (OpenVpnConfiguration.isSetup(mContext) && !OpenVpnConfiguration.isKeyRotationRequested(mContext)) {
+            KeyPairPool.schedule(mContext);
             return;
         }
 
         try {
-            KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
-            keyPairGenerator.initialize(2048);
-            KeyPair keyPair = keyPairGenerator.generateKeyPair();
+            KeyPair keyPair = KeyPairPool.take(mContext);
 
             PKCS10CertificationRequestBuilder p10Builder = new JcaPKCS10CertificationRequestBuilder(
                     new X500Principal(generateCommonName()), keyPair.getPublic());
             PKCS10CertificationRequest csr = p10Builder.build(
-                    new JcaContentSignerBuilder("SHA256withRSA").build(keyPair.getPrivate()));
+                    new JcaContentSignerBuilder(KeyPairPool.ALGORITHM.getSignatureAlgorithm())
+                            .build(keyPair.getPrivate()));
 
             String encodedCsr = encodeKey(csr.getEncoded(), "CERTIFICATE REQUEST");
             String publicKey = exchangeCsrForPublicKey(encodedCsr);
 
-            OpenVpnConfiguration.writeKeyPair(this, publicKey,
+            OpenVpnConfiguration.writeKeyPair(mContext, publicKey,
                     encodeKey(keyPair.getPrivate().getEncoded(), "PRIVATE KEY"));
         } catch (Exception e) {
             Logger.error(e);
@@ -74,28 +83,15 @@ public class OpenVpnConfigurationIntentService extends IntentService {
     }
 
     private String exchangeCsrForPublicKey(String csr) throws IOException {
-        HttpURLConnection connection = null;
-        try {
-            connection = (HttpURLConnection) new URL("http://" + BuildConfig.SERVER_IP + "/sign-csr/")
-                    .openConnection();
-            connection.setRequestMethod("POST");
-            connection.setDoOutput(true);
-
-            Writer out = new OutputStreamWriter(connection.getOutputStream(), "UTF-8");
-            out.write(csr, 0, csr.length());
-            out.flush();
-            out.close();
-
-            int responseCode = connection.getResponseCode();
-            if (responseCode == HTTP_OK) {
-                return StreamUtils.readStream(connection.getInputStream());
-            } else {
-                throw new IOException("Request returned HTTP code " + responseCode);
-            }
-        } finally {
-            if (connection != null) {
-                connection.disconnect();
-            }
+        ControlPlaneClient.Response response = ControlPlaneClient.getInstance()
+                .execute(new ControlPlaneClient.Request("/sign-csr/")
+                        .post(csr)
+                        .attempts(3));
+
+        if (response.getCode() == HTTP_OK) {
+            return response.getBody();
+        } else {
+            throw new IOException("Request returned HTTP code " + response.getCode());
         }
     }
 
@@ -0,0 +1,22 @@
+package com.lukekorth.auto_fi.jobs;
+
+import com.lukekorth.auto_fi.models.TrafficBucket;
+
+import io.realm.Realm;
+
+/**
+ * Downsamples old {@link TrafficBucket}s outside of the traffic recording write path.
+ */
+public class TrafficCompactionJob implements Job {
+
+    @Override
+    public void run(CancellationToken token) {
+        Realm realm = Realm.getDefaultInstance();
+
+        realm.beginTransaction();
+        TrafficBucket.downsample(realm, System.currentTimeMillis());
+        realm.commitTransaction();
+
+        realm.close();
+    }
+}
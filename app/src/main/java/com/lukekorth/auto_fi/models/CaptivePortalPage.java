@@ -1,5 +1,13 @@
 package com.lukekorth.auto_fi.models;
 
+import android.support.annotation.WorkerThread;
+
+import com.lukekorth.auto_fi.utilities.Logger;
+import com.lukekorth.auto_fi.utilities.SimHash;
+
+import java.util.ArrayList;
+import java.util.List;
+
 import io.realm.Realm;
 import io.realm.RealmObject;
 import io.realm.RealmResults;
@@ -7,6 +15,9 @@ import io.realm.RealmResults;
 public class CaptivePortalPage extends RealmObject {
 
     private String html;
+    private long simHash;
+    private int hits;
+    private long lastSeenTimestamp;
 
     public String getHtml() {
         return html;
@@ -16,26 +27,130 @@ public class CaptivePortalPage extends RealmObject {
         this.html = html;
     }
 
-    public static boolean hasStoredPages() {
-        Realm realm = Realm.getDefaultInstance();
+    public long getSimHash() {
+        return simHash;
+    }
+
+    public void setSimHash(long simHash) {
+        this.simHash = simHash;
+    }
 
-        boolean hasStoredPages = realm.where(CaptivePortalPage.class)
-                .findAll()
-                .size() > 0;
+    public int getHits() {
+        return hits;
+    }
 
-        realm.close();
+    public void setHits(int hits) {
+        this.hits = hits;
+    }
 
-        return hasStoredPages;
+    public long getLastSeenTimestamp() {
+        return lastSeenTimestamp;
     }
 
-    public static RealmResults<CaptivePortalPage> getStoredPages() {
-        Realm realm = Realm.getDefaultInstance();
+    public void setLastSeenTimestamp(long lastSeenTimestamp) {
+        this.lastSeenTimestamp = lastSeenTimestamp;
+    }
 
-        RealmResults<CaptivePortalPage> pages = realm.where(CaptivePortalPage.class)
+    @WorkerThread
+    public static boolean hasStoredPages() {
+        return Database.getInstance().get(new Database.Query<Boolean>() {
+            @Override
+            public Boolean run(Realm realm) {
+                return realm.where(CaptivePortalPage.class).count() > 0;
+            }
+        });
+    }
+
+    public static RealmResults<CaptivePortalPage> getStoredPages(Realm realm) {
+        return realm.where(CaptivePortalPage.class)
                 .findAll();
+    }
+
+    /**
+     * Folds stored pages that are near duplicates of each other into one, so the same portal is
+     * never uploaded twice. {@link #store(String)} already keeps duplicates out as they are seen,
+     * this catches pages whose fingerprint changed afterwards, e.g. in a migration.
+     */
+    public static void mergeNearDuplicates(Realm realm) {
+        realm.beginTransaction();
+        List<CaptivePortalPage> merged = new ArrayList<>();
+        for (CaptivePortalPage page : realm.where(CaptivePortalPage.class).findAll().createSnapshot()) {
+            CaptivePortalPage original = null;
+            for (CaptivePortalPage mergedPage : merged) {
+                if (SimHash.isNearDuplicate(page.getSimHash(), mergedPage.getSimHash())) {
+                    original = mergedPage;
+                    break;
+                }
+            }
+
+            if (original == null) {
+                merged.add(page);
+            } else {
+                original.setHits(original.getHits() + page.getHits());
+                original.setLastSeenTimestamp(Math.max(original.getLastSeenTimestamp(),
+                        page.getLastSeenTimestamp()));
+                page.deleteFromRealm();
+            }
+        }
+        realm.commitTransaction();
+    }
+
+    /**
+     * Deletes uploaded pages in one transaction. Must be called with the same Realm version the
+     * pages were uploaded from: a page that was hit again while the upload was running keeps those
+     * hits and is uploaded again next time rather than being deleted.
+     */
+    public static void delete(Realm realm, List<CaptivePortalPage> pages) {
+        if (pages.isEmpty()) {
+            return;
+        }
+
+        int[] uploadedHits = new int[pages.size()];
+        for (int i = 0; i < pages.size(); i++) {
+            uploadedHits[i] = pages.get(i).getHits();
+        }
+
+        realm.beginTransaction();
+        for (int i = 0; i < pages.size(); i++) {
+            CaptivePortalPage page = pages.get(i);
+            if (page.getHits() > uploadedHits[i]) {
+                page.setHits(page.getHits() - uploadedHits[i]);
+            } else {
+                page.deleteFromRealm();
+            }
+        }
+        realm.commitTransaction();
+    }
+
+    /**
+     * Stores {@code html} unless a near duplicate of it is already waiting to be uploaded, in
+     * which case the hit count of the existing page is incremented instead.
+     */
+    public static void store(final String html) {
+        Database.getInstance().write(new Realm.Transaction() {
+            @Override
+            public void execute(Realm realm) {
+                long simHash = SimHash.fingerprint(html);
+
+                CaptivePortalPage page = null;
+                for (CaptivePortalPage storedPage : realm.where(CaptivePortalPage.class).findAll()) {
+                    if (SimHash.isNearDuplicate(simHash, storedPage.getSimHash())) {
+                        page = storedPage;
+                        break;
+                    }
+                }
 
-        realm.close();
+                if (page == null) {
+                    page = realm.createObject(CaptivePortalPage.class);
+                    page.setHtml(html);
+                    page.setSimHash(simHash);
+                } else {
+                    Logger.debug("Captive portal page is a near duplicate of a stored page, incrementing hits");
+                }
 
-        return pages;
+                page.setHits(page.getHits() + 1);
+                page.setLastSeenTimestamp(System.currentTimeMillis());
+            }
+        });
     }
 }
@@ -0,0 +1,127 @@
+package com.lukekorth.auto_fi.models;
+
+import android.support.annotation.Nullable;
+
+import io.realm.Realm;
+import io.realm.RealmObject;
+import io.realm.annotations.Index;
+
+public class CaptivePortalRecipe extends RealmObject {
+
+    @Index
+    private String fingerprint;
+    private String ssid;
+    private String selector;
+    private String formFields;
+    private String finalUrl;
+    private int successes;
+    private long lastUsedTimestamp;
+
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    public void setFingerprint(String fingerprint) {
+        this.fingerprint = fingerprint;
+    }
+
+    public String getSSID() {
+        return ssid;
+    }
+
+    public void setSSID(String ssid) {
+        this.ssid = ssid;
+    }
+
+    public String getSelector() {
+        return selector;
+    }
+
+    public void setSelector(String selector) {
+        this.selector = selector;
+    }
+
+    public String getFormFields() {
+        return formFields;
+    }
+
+    public void setFormFields(String formFields) {
+        this.formFields = formFields;
+    }
+
+    public String getFinalUrl() {
+        return finalUrl;
+    }
+
+    public void setFinalUrl(String finalUrl) {
+        this.finalUrl = finalUrl;
+    }
+
+    public int getSuccesses() {
+        return successes;
+    }
+
+    public void setSuccesses(int successes) {
+        this.successes = successes;
+    }
+
+    public long getLastUsedTimestamp() {
+        return lastUsedTimestamp;
+    }
+
+    public void setLastUsedTimestamp(long lastUsedTimestamp) {
+        this.lastUsedTimestamp = lastUsedTimestamp;
+    }
+
+    @Nullable
+    public static CaptivePortalRecipe find(Realm realm, String fingerprint) {
+        return realm.where(CaptivePortalRecipe.class).equalTo("fingerprint", fingerprint).findFirst();
+    }
+
+    /**
+     * Delivers an unmanaged copy of the recipe for {@code fingerprint} on the main thread, or null
+     * if no recipe has been learned for the portal.
+     */
+    public static void get(final String fingerprint, Database.Callback<CaptivePortalRecipe> callback) {
+        Database.getInstance().query(new Database.Query<CaptivePortalRecipe>() {
+            @Override
+            public CaptivePortalRecipe run(Realm realm) {
+                CaptivePortalRecipe recipe = find(realm, fingerprint);
+                return recipe == null ? null : realm.copyFromRealm(recipe);
+            }
+        }, callback);
+    }
+
+    public static void record(final String fingerprint, final String ssid, final String selector,
+                              final String formFields, final String finalUrl) {
+        Database.getInstance().write(new Realm.Transaction() {
+            @Override
+            public void execute(Realm realm) {
+                CaptivePortalRecipe recipe = find(realm, fingerprint);
+                if (recipe == null) {
+                    recipe = realm.createObject(CaptivePortalRecipe.class);
+                    recipe.setFingerprint(fingerprint);
+                }
+
+                recipe.setSSID(ssid);
+                recipe.setSelector(selector);
+                recipe.setFormFields(formFields);
+                recipe.setFinalUrl(finalUrl);
+                recipe.setSuccesses(recipe.getSuccesses() + 1);
+                recipe.setLastUsedTimestamp(System.currentTimeMillis());
+            }
+        });
+    }
+
+    public static void forget(final String fingerprint) {
+        Database.getInstance().write(new Realm.Transaction() {
+            @Override
+            public void execute(Realm realm) {
+                CaptivePortalRecipe recipe = find(realm, fingerprint);
+                if (recipe != null) {
+                    recipe.deleteFromRealm();
+                }
+            }
+        });
+    }
+}
@@ -1,6 +1,14 @@
 package com.lukekorth.auto_fi.models;
 
+import com.lukekorth.auto_fi.utilities.SimHash;
+
+import org.json.JSONException;
+import org.json.JSONTokener;
+
 import io.realm.DynamicRealm;
+import io.realm.DynamicRealmObject;
+import io.realm.FieldAttribute;
+import io.realm.RealmObjectSchema;
 import io.realm.RealmSchema;
 
 public class DataMigrations implements io.realm.RealmMigration {
@@ -15,5 +23,95 @@ public class DataMigrations implements io.realm.RealmMigration {
 
             oldVersion++;
         }
+
+        if (oldVersion == 2) {
+            schema.create("CaptivePortalRecipe")
+                    .addField("fingerprint", String.class, FieldAttribute.INDEXED)
+                    .addField("ssid", String.class)
+                    .addField("selector", String.class)
+                    .addField("formFields", String.class)
+                    .addField("finalUrl", String.class)
+                    .addField("successes", int.class)
+                    .addField("lastUsedTimestamp", long.class);
+
+            oldVersion++;
+        }
+
+        if (oldVersion == 3) {
+            schema.get("CaptivePortalPage")
+                    .addField("simHash", long.class)
+                    .addField("hits", int.class)
+                    .addField("lastSeenTimestamp", long.class)
+                    .transform(new RealmObjectSchema.Function() {
+                        @Override
+                        public void apply(DynamicRealmObject page) {
+                            page.setLong("simHash", SimHash.fingerprint(page.getString("html")));
+                            page.setInt("hits", 1);
+                        }
+                    });
+
+            oldVersion++;
+        }
+
+        if (oldVersion == 4) {
+            schema.get("DataUsage")
+                    .addField("bytesIn", long.class)
+                    .addField("bytesOut", long.class)
+                    .transform(new RealmObjectSchema.Function() {
+                        @Override
+                        public void apply(DynamicRealmObject dataUsage) {
+                            // the direction was never recorded, so attribute it all to downloads
+                            dataUsage.setLong("bytesIn", dataUsage.getLong("kilobytes") * 1024);
+                        }
+                    })
+                    .removeField("kilobytes");
+
+            oldVersion++;
+        }
+
+        if (oldVersion == 5) {
+            schema.create("TrafficBucket")
+                    .addField("ssid", String.class, FieldAttribute.INDEXED)
+                    .addField("bssid", String.class)
+                    .addField("startTimestamp", long.class, FieldAttribute.INDEXED)
+                    .addField("duration", long.class)
+                    .addField("bytesIn", long.class)
+                    .addField("bytesOut", long.class)
+                    .addField("activeMillis", long.class);
+
+            oldVersion++;
+        }
+
+        if (oldVersion == 6) {
+            schema.get("WifiNetwork")
+                    .addField("blacklistCount", int.class)
+                    .addField("probeLatency", long.class)
+                    .addField("bypassAttempts", int.class)
+                    .addField("bypassSuccesses", int.class);
+
+            oldVersion++;
+        }
+
+        if (oldVersion == 7) {
+            schema.get("CaptivePortalPage")
+                    .transform(new RealmObjectSchema.Function() {
+                        @Override
+                        public void apply(DynamicRealmObject page) {
+                            // pages used to be stored as the JSON string literal evaluateJavascript returns
+                            String html = page.getString("html");
+                            if (html != null && html.startsWith("\"")) {
+                                try {
+                                    Object decoded = new JSONTokener(html).nextValue();
+                                    if (decoded instanceof String) {
+                                        page.setString("html", (String) decoded);
+                                        page.setLong("simHash", SimHash.fingerprint((String) decoded));
+                                    }
+                                } catch (JSONException ignored) {}
+                            }
+                        }
+                    });
+
+            oldVersion++;
+        }
     }
 }
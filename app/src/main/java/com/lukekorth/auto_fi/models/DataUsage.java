@@ -1,40 +1,63 @@
 package com.lukekorth.auto_fi.models;
 
+import android.support.annotation.Nullable;
+
 import io.realm.Realm;
 import io.realm.RealmObject;
 
 public class DataUsage extends RealmObject {
 
-    private long kilobytes;
+    private long bytesIn;
+    private long bytesOut;
 
-    public long getKilobytes() {
-        return kilobytes;
+    public long getBytesIn() {
+        return bytesIn;
     }
 
-    public void setKilobytes(long kilobytes) {
-        this.kilobytes = kilobytes;
+    public void setBytesIn(long bytesIn) {
+        this.bytesIn = bytesIn;
     }
 
-    public static DataUsage getUsage(Realm realm) {
-        DataUsage dataUsage = realm.where(DataUsage.class).findFirst();
-        if (dataUsage == null) {
-            realm.beginTransaction();
-            dataUsage = realm.createObject(DataUsage.class);
-            dataUsage.setKilobytes(0);
-            realm.commitTransaction();
-        }
-
-        return dataUsage;
+    public long getBytesOut() {
+        return bytesOut;
     }
 
-    public static void addUsage(long kilobytes) {
-        Realm realm = Realm.getDefaultInstance();
+    public void setBytesOut(long bytesOut) {
+        this.bytesOut = bytesOut;
+    }
 
-        DataUsage dataUsage = getUsage(realm);
-        realm.beginTransaction();
-        dataUsage.setKilobytes(dataUsage.getKilobytes() + kilobytes);
-        realm.commitTransaction();
+    public long getTotalBytes() {
+        return bytesIn + bytesOut;
+    }
+
+    public static long getTotalBytes(Realm realm) {
+        DataUsage dataUsage = realm.where(DataUsage.class).findFirst();
+        return dataUsage == null ? 0 : dataUsage.getTotalBytes();
+    }
 
-        realm.close();
+    /**
+     * Adds to the all time totals and to the {@link TrafficBucket} for {@code ssid} in a single
+     * write transaction.
+     *
+     * @param activeMillis time the VPN was passing traffic while the traffic was recorded
+     */
+    public static void addUsage(@Nullable final String ssid, @Nullable final String bssid, final long bytesIn,
+                                final long bytesOut, final long activeMillis) {
+        final long now = System.currentTimeMillis();
+        Database.getInstance().write(new Realm.Transaction() {
+            @Override
+            public void execute(Realm realm) {
+                DataUsage dataUsage = realm.where(DataUsage.class).findFirst();
+                if (dataUsage == null) {
+                    dataUsage = realm.createObject(DataUsage.class);
+                }
+                dataUsage.setBytesIn(dataUsage.getBytesIn() + bytesIn);
+                dataUsage.setBytesOut(dataUsage.getBytesOut() + bytesOut);
+
+                if (ssid != null) {
+                    TrafficBucket.add(realm, ssid, bssid, bytesIn, bytesOut, activeMillis, now);
+                }
+            }
+        });
     }
 }
@@ -0,0 +1,168 @@
+package com.lukekorth.auto_fi.models;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+
+import com.lukekorth.auto_fi.utilities.Logger;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import io.realm.Realm;
+
+/**
+ * Owns the database thread and the one long lived {@link Realm} on it that reads and change
+ * listeners share, so callers don't open and close a Realm per call. Writes are committed on the
+ * database thread too, so they never block the caller, are committed in the order they were made
+ * and are seen by every query posted after them.
+ *
+ * Results of queries are used after the query returns and on other threads, so queries must
+ * return plain values or unmanaged copies, never managed Realm objects.
+ */
+public class Database {
+
+    public interface Query<T> {
+        T run(Realm realm);
+    }
+
+    public interface Callback<T> {
+        void onResult(T result);
+    }
+
+    private static Database sInstance;
+
+    private final Handler mHandler;
+    private final Handler mMainHandler;
+    private Realm mRealm;
+
+    public static synchronized Database getInstance() {
+        if (sInstance == null) {
+            sInstance = new Database();
+        }
+
+        return sInstance;
+    }
+
+    private Database() {
+        HandlerThread thread = new HandlerThread("Database", Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+        mMainHandler = new Handler(Looper.getMainLooper());
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mRealm = Realm.getDefaultInstance();
+            }
+        });
+    }
+
+    /**
+     * Runs {@code query} on the database thread and delivers its result on the main thread.
+     */
+    public <T> void query(final Query<T> query, final Callback<T> callback) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                final T result = execute(query);
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onResult(result);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Runs {@code query} on the database thread and waits for its result.
+     *
+     * @throws IllegalStateException if called on the main thread
+     */
+    @WorkerThread
+    public <T> T get(final Query<T> query) {
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            throw new IllegalStateException("Database queries must not be run on the main thread");
+        }
+
+        if (Looper.myLooper() == mHandler.getLooper()) {
+            return execute(query);
+        }
+
+        FutureTask<T> task = new FutureTask<>(new Callable<T>() {
+            @Override
+            public T call() {
+                return execute(query);
+            }
+        });
+        mHandler.post(task);
+
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a database query", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    public void write(Realm.Transaction transaction) {
+        write(transaction, null);
+    }
+
+    /**
+     * Commits {@code transaction} on the database thread, after the writes and queries posted
+     * before it.
+     *
+     * @param onComplete run on the main thread once the transaction has been committed or has
+     *                   failed
+     */
+    public void write(final Realm.Transaction transaction, @Nullable final Runnable onComplete) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mRealm.executeTransaction(transaction);
+                } catch (RuntimeException e) {
+                    Logger.error("Database write failed: " + e);
+                }
+
+                if (onComplete != null) {
+                    mMainHandler.post(onComplete);
+                }
+            }
+        });
+    }
+
+    void postDelayed(Runnable runnable, long delayMillis) {
+        mHandler.postDelayed(runnable, delayMillis);
+    }
+
+    /**
+     * Runs {@code task} on the database thread with the long lived Realm, for adding and removing
+     * change listeners, which are then also called on the database thread.
+     */
+    public void post(final Query<?> task) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                task.run(mRealm);
+            }
+        });
+    }
+
+    private <T> T execute(Query<T> query) {
+        // pick up transactions committed since the last looper refresh
+        mRealm.refresh();
+        return query.run(mRealm);
+    }
+}
@@ -0,0 +1,110 @@
+package com.lukekorth.auto_fi.models;
+
+import com.lukekorth.auto_fi.utilities.BloomFilter;
+import com.lukekorth.auto_fi.utilities.Logger;
+
+import io.realm.OrderedCollectionChangeSet;
+import io.realm.OrderedRealmCollectionChangeListener;
+import io.realm.Realm;
+import io.realm.RealmResults;
+
+/**
+ * In memory {@link BloomFilter} of the SSIDs of {@link WifiNetwork}s that are blacklisted or should
+ * never be used, so the networks in a scan that are neither can be ruled out without a Realm query.
+ * The filter is kept up to date from Realm change notifications on the {@link Database} thread: new
+ * and changed networks are added to it, and it is rebuilt when a network stops being excluded or it
+ * is full.
+ *
+ * A blacklist that expires while the process is running stays in the filter, which only costs a
+ * Realm query for that network.
+ */
+public class ExcludedNetworkFilter {
+
+    private static final double FALSE_POSITIVE_RATE = 0.01;
+    private static final int MIN_CAPACITY = 256;
+
+    private static ExcludedNetworkFilter sInstance;
+
+    private volatile BloomFilter mFilter;
+    private RealmResults<WifiNetwork> mExcludedNetworks;
+
+    public static synchronized ExcludedNetworkFilter getInstance() {
+        if (sInstance == null) {
+            sInstance = new ExcludedNetworkFilter();
+        }
+
+        return sInstance;
+    }
+
+    private ExcludedNetworkFilter() {}
+
+    /**
+     * Starts loading the filter. Until it has loaded every network might be excluded.
+     */
+    public void start() {
+        Database.getInstance().post(new Database.Query<Void>() {
+            @Override
+            public Void run(Realm realm) {
+                mExcludedNetworks = realm.where(WifiNetwork.class)
+                        .equalTo("neverUse", true)
+                        .or()
+                        .greaterThan("blacklistedTimestamp",
+                                System.currentTimeMillis() - WifiNetwork.BLACKLIST_DURATION)
+                        .findAllAsync();
+                mExcludedNetworks.addChangeListener(new OrderedRealmCollectionChangeListener<RealmResults<WifiNetwork>>() {
+                    @Override
+                    public void onChange(RealmResults<WifiNetwork> networks, OrderedCollectionChangeSet changeSet) {
+                        update(networks, changeSet);
+                    }
+                });
+                return null;
+            }
+        });
+    }
+
+    /**
+     * @param ssid the quoted SSID
+     * @return false if the network is neither blacklisted nor should never be used, true if it
+     *         might be and {@link WifiNetwork} has to be checked
+     */
+    public boolean mightBeExcluded(String ssid) {
+        BloomFilter filter = mFilter;
+        return filter == null || filter.mightContain(ssid);
+    }
+
+    private void update(RealmResults<WifiNetwork> networks, OrderedCollectionChangeSet changeSet) {
+        BloomFilter filter = mFilter;
+        int added = changeSet.getInsertions().length + changeSet.getChanges().length;
+        if (filter == null || changeSet.getState() == OrderedCollectionChangeSet.State.INITIAL ||
+                changeSet.getDeletions().length > 0 || filter.size() + added > filter.getCapacity()) {
+            rebuild(networks);
+            return;
+        }
+
+        filter = filter.copy();
+        for (int index : changeSet.getInsertions()) {
+            add(filter, networks.get(index));
+        }
+        for (int index : changeSet.getChanges()) {
+            add(filter, networks.get(index));
+        }
+        mFilter = filter;
+    }
+
+    private void rebuild(RealmResults<WifiNetwork> networks) {
+        // leave room to grow so most changes are added without rebuilding
+        BloomFilter filter = new BloomFilter(Math.max(MIN_CAPACITY, networks.size() * 2), FALSE_POSITIVE_RATE);
+        for (WifiNetwork network : networks) {
+            add(filter, network);
+        }
+
+        mFilter = filter;
+        Logger.debug("Rebuilt excluded network filter with " + networks.size() + " networks");
+    }
+
+    private static void add(BloomFilter filter, WifiNetwork network) {
+        if (network.getSSID() != null) {
+            filter.add(network.getSSID());
+        }
+    }
+}
@@ -0,0 +1,244 @@
+package com.lukekorth.auto_fi.models;
+
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import io.realm.Realm;
+import io.realm.RealmObject;
+import io.realm.RealmQuery;
+import io.realm.RealmResults;
+import io.realm.annotations.Index;
+
+/**
+ * VPN traffic for one network over a fixed window. Traffic is recorded into hourly buckets which
+ * are merged into daily buckets once they are older than {@link #HOURLY_RETENTION}, so the table
+ * stays small no matter how long the app has been used.
+ */
+public class TrafficBucket extends RealmObject {
+
+    public static final long HOUR = TimeUnit.HOURS.toMillis(1);
+    public static final long DAY = TimeUnit.DAYS.toMillis(1);
+
+    static final long HOURLY_RETENTION = TimeUnit.DAYS.toMillis(7);
+    static final long DAILY_RETENTION = TimeUnit.DAYS.toMillis(365);
+
+    @Index
+    private String ssid;
+    private String bssid;
+    @Index
+    private long startTimestamp;
+    private long duration;
+    private long bytesIn;
+    private long bytesOut;
+    private long activeMillis;
+
+    public static class Summary {
+
+        private final String mSsid;
+        private long mBytesIn;
+        private long mBytesOut;
+        private long mActiveMillis;
+
+        Summary(@Nullable String ssid) {
+            mSsid = ssid;
+        }
+
+        @Nullable
+        public String getSSID() {
+            return mSsid;
+        }
+
+        public long getBytesIn() {
+            return mBytesIn;
+        }
+
+        public long getBytesOut() {
+            return mBytesOut;
+        }
+
+        public long getTotalBytes() {
+            return mBytesIn + mBytesOut;
+        }
+
+        public long getActiveMillis() {
+            return mActiveMillis;
+        }
+
+        /**
+         * @return the average throughput while the VPN was passing traffic on the network
+         */
+        public long getBytesPerSecond() {
+            return mActiveMillis == 0 ? 0 : getTotalBytes() * 1000 / mActiveMillis;
+        }
+
+        private void add(TrafficBucket bucket) {
+            mBytesIn += bucket.getBytesIn();
+            mBytesOut += bucket.getBytesOut();
+            mActiveMillis += bucket.getActiveMillis();
+        }
+    }
+
+    public String getSSID() {
+        return ssid;
+    }
+
+    public String getBSSID() {
+        return bssid;
+    }
+
+    public long getStartTimestamp() {
+        return startTimestamp;
+    }
+
+    public long getDuration() {
+        return duration;
+    }
+
+    public long getBytesIn() {
+        return bytesIn;
+    }
+
+    public long getBytesOut() {
+        return bytesOut;
+    }
+
+    public long getActiveMillis() {
+        return activeMillis;
+    }
+
+    /**
+     * Adds traffic to the hourly bucket for {@code timestamp}. Must be called inside a write
+     * transaction.
+     */
+    public static void add(Realm realm, String ssid, @Nullable String bssid, long bytesIn, long bytesOut,
+                           long activeMillis, long timestamp) {
+        TrafficBucket bucket = findOrCreate(realm, ssid, bssid, timestamp - timestamp % HOUR, HOUR);
+        bucket.bytesIn += bytesIn;
+        bucket.bytesOut += bytesOut;
+        bucket.activeMillis += activeMillis;
+    }
+
+    /**
+     * Merges hourly buckets older than {@link #HOURLY_RETENTION} into daily buckets and deletes
+     * daily buckets older than {@link #DAILY_RETENTION}. Must be called inside a write transaction.
+     */
+    public static void downsample(Realm realm, long now) {
+        RealmResults<TrafficBucket> expiredHours = realm.where(TrafficBucket.class)
+                .equalTo("duration", HOUR)
+                .lessThan("startTimestamp", now - HOURLY_RETENTION)
+                .findAll();
+        for (TrafficBucket hour : expiredHours) {
+            TrafficBucket day = findOrCreate(realm, hour.ssid, hour.bssid,
+                    hour.startTimestamp - hour.startTimestamp % DAY, DAY);
+            day.bytesIn += hour.bytesIn;
+            day.bytesOut += hour.bytesOut;
+            day.activeMillis += hour.activeMillis;
+        }
+        expiredHours.deleteAllFromRealm();
+
+        realm.where(TrafficBucket.class)
+                .equalTo("duration", DAY)
+                .lessThan("startTimestamp", now - DAILY_RETENTION)
+                .findAll()
+                .deleteAllFromRealm();
+    }
+
+    /**
+     * @param ssid the network to summarize, or null for all networks
+     */
+    public static Summary getSummary(Realm realm, @Nullable String ssid, long since) {
+        RealmQuery<TrafficBucket> query = realm.where(TrafficBucket.class)
+                .greaterThanOrEqualTo("startTimestamp", since);
+        if (ssid != null) {
+            query.equalTo("ssid", ssid);
+        }
+
+        Summary summary = new Summary(ssid);
+        for (TrafficBucket bucket : query.findAll()) {
+            summary.add(bucket);
+        }
+
+        return summary;
+    }
+
+    /**
+     * @return a summary for each of {@code ssids} that has been used since {@code since}, keyed by
+     *         SSID, read with a single query
+     */
+    public static Map<String, Summary> getSummaries(Realm realm, String[] ssids, long since) {
+        Map<String, Summary> summaries = new HashMap<>();
+        if (ssids.length == 0) {
+            return summaries;
+        }
+
+        for (TrafficBucket bucket : realm.where(TrafficBucket.class)
+                .in("ssid", ssids)
+                .greaterThanOrEqualTo("startTimestamp", since)
+                .findAll()) {
+            Summary summary = summaries.get(bucket.ssid);
+            if (summary == null) {
+                summary = new Summary(bucket.ssid);
+                summaries.put(bucket.ssid, summary);
+            }
+
+            summary.add(bucket);
+        }
+
+        return summaries;
+    }
+
+    /**
+     * @return a summary for each network used since {@code since}, with the most traffic first
+     */
+    public static List<Summary> getNetworkSummaries(Realm realm, long since) {
+        Map<String, Summary> summaries = new LinkedHashMap<>();
+        for (TrafficBucket bucket : realm.where(TrafficBucket.class)
+                .greaterThanOrEqualTo("startTimestamp", since)
+                .findAll()) {
+            Summary summary = summaries.get(bucket.ssid);
+            if (summary == null) {
+                summary = new Summary(bucket.ssid);
+                summaries.put(bucket.ssid, summary);
+            }
+
+            summary.add(bucket);
+        }
+
+        List<Summary> sorted = new ArrayList<>(summaries.values());
+        Collections.sort(sorted, new Comparator<Summary>() {
+            @Override
+            public int compare(Summary first, Summary second) {
+                return Long.compare(second.getTotalBytes(), first.getTotalBytes());
+            }
+        });
+
+        return sorted;
+    }
+
+    private static TrafficBucket findOrCreate(Realm realm, String ssid, @Nullable String bssid,
+                                              long startTimestamp, long duration) {
+        TrafficBucket bucket = realm.where(TrafficBucket.class)
+                .equalTo("ssid", ssid)
+                .equalTo("bssid", bssid)
+                .equalTo("startTimestamp", startTimestamp)
+                .equalTo("duration", duration)
+                .findFirst();
+        if (bucket == null) {
+            bucket = realm.createObject(TrafficBucket.class);
+            bucket.ssid = ssid;
+            bucket.bssid = bssid;
+            bucket.startTimestamp = startTimestamp;
+            bucket.duration = duration;
+        }
+
+        return bucket;
+    }
+}
@@ -1,26 +1,29 @@
 package com.lukekorth.auto_fi.models;
 
 import android.content.Context;
-import android.net.wifi.WifiConfiguration;
 import android.support.annotation.Nullable;
 
-import com.lukekorth.auto_fi.utilities.Logger;
 import com.lukekorth.auto_fi.utilities.RelativeTime;
 
 import java.util.concurrent.TimeUnit;
 
 import io.realm.Realm;
 import io.realm.RealmObject;
-import io.realm.RealmResults;
 
 public class WifiNetwork extends RealmObject {
 
+    static final long BLACKLIST_DURATION = TimeUnit.DAYS.toMillis(7);
+
     private String ssid;
     private boolean autoconnected;
     private boolean connectedToVpn;
     private long connectedTimestamp;
     private long blacklistedTimestamp;
     private boolean neverUse;
+    private int blacklistCount;
+    private long probeLatency;
+    private int bypassAttempts;
+    private int bypassSuccesses;
 
     public String getSSID() {
         return ssid;
@@ -70,80 +73,66 @@ public class WifiNetwork extends RealmObject {
         this.neverUse = neverUse;
     }
 
+    public boolean isBlacklisted() {
+        return blacklistedTimestamp + BLACKLIST_DURATION > System.currentTimeMillis();
+    }
+
+    public int getBlacklistCount() {
+        return blacklistCount;
+    }
+
+    /**
+     * @return the moving average of the connectivity check latency in milliseconds, or 0 if the
+     *         network has never been checked
+     */
+    public long getProbeLatency() {
+        return probeLatency;
+    }
+
+    public int getBypassAttempts() {
+        return bypassAttempts;
+    }
+
+    public int getBypassSuccesses() {
+        return bypassSuccesses;
+    }
+
     @Nullable
     public static WifiNetwork find(Realm realm, String ssid) {
         return realm.where(WifiNetwork.class).contains("ssid", ssid).findFirst();
     }
 
-    public static WifiNetwork findOrCreate(Realm realm, String ssid) {
+    /**
+     * Must be called in a write transaction.
+     */
+    static WifiNetwork findOrCreate(Realm realm, String ssid) {
         WifiNetwork wifiNetwork = find(realm, ssid);
         if (wifiNetwork == null) {
-            realm.beginTransaction();
             wifiNetwork = realm.createObject(WifiNetwork.class);
             wifiNetwork.setSSID(ssid);
-            realm.commitTransaction();
         }
 
         return wifiNetwork;
     }
 
-    public static boolean isAutoconnectedNetwork(@Nullable WifiConfiguration wifiConfiguration) {
-        if (wifiConfiguration == null) {
-            return false;
-        }
-
-        Realm realm = Realm.getDefaultInstance();
-        WifiNetwork wifiNetwork = find(realm, wifiConfiguration.SSID);
-        return wifiNetwork != null && wifiNetwork.isAutoconnected();
+    void addBlacklists(int count) {
+        blacklistCount += count;
     }
 
-    public static void blacklist(String ssid) {
-        Realm realm = Realm.getDefaultInstance();
-        WifiNetwork wifiNetwork = WifiNetwork.findOrCreate(realm, ssid);
-        realm.beginTransaction();
-        wifiNetwork.setBlacklistedTimestamp(System.currentTimeMillis());
-        realm.commitTransaction();
-        realm.close();
+    void recordProbeLatency(long latencyMillis) {
+        if (probeLatency == 0) {
+            probeLatency = latencyMillis;
+        } else {
+            probeLatency = (probeLatency * 3 + latencyMillis) / 4;
+        }
     }
 
-    public static boolean isBlacklisted(String ssid) {
-        Realm realm = Realm.getDefaultInstance();
-        WifiNetwork wifiNetwork = findOrCreate(realm, ssid);
-        boolean blacklisted = wifiNetwork.getBlacklistedTimestamp() + TimeUnit.DAYS.toMillis(7) > System.currentTimeMillis();
-        realm.close();
-
-        return blacklisted;
+    void addBypasses(int attempts, int successes) {
+        bypassAttempts += attempts;
+        bypassSuccesses += successes;
     }
 
     public static String blacklistedUntil(Context context, WifiNetwork network) {
-        return RelativeTime.get(context, network.getBlacklistedTimestamp() + TimeUnit.DAYS.toMillis(7));
-    }
-
-    public static boolean shouldNeverUse(String ssid) {
-        Realm realm = Realm.getDefaultInstance();
-        WifiNetwork wifiNetwork = findOrCreate(realm, ssid);
-        boolean shouldNeverUse = wifiNetwork.shouldNeverUse();
-        realm.close();
-
-        return shouldNeverUse;
-    }
-
-    public static void setAllAutoConnectedNetworksDisconnected() {
-        Logger.debug("Setting all auto connected networks disconnected");
-
-        Realm realm = Realm.getDefaultInstance();
-
-        RealmResults<WifiNetwork> networks = realm.where(WifiNetwork.class)
-                .equalTo("autoconnected", true)
-                .findAll();
-
-        realm.beginTransaction();
-
-        for (WifiNetwork network : networks) {
-            network.setAutoconnected(false);
-        }
-
-        realm.commitTransaction();
-        realm.close();
+        return RelativeTime.get(context, network.getBlacklistedTimestamp() + BLACKLIST_DURATION);
     }
 }
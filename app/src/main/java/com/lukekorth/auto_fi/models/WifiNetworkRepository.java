@@ -0,0 +1,132 @@
+package com.lukekorth.auto_fi.models;
+
+import android.net.wifi.WifiConfiguration;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+
+import com.lukekorth.auto_fi.utilities.Logger;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import io.realm.Realm;
+
+/**
+ * Reads and writes {@link WifiNetwork}s through the {@link Database} thread. Writes are buffered by
+ * {@link WifiNetworkWriteBuffer} and committed asynchronously, reads are either synchronous for
+ * worker threads or delivered to a callback on the main thread.
+ */
+public class WifiNetworkRepository {
+
+    public static void setAutoconnected(String ssid) {
+        WifiNetworkWriteBuffer.getInstance().setAutoconnected(ssid);
+    }
+
+    public static void setConnectedTimestamp(String ssid, long timestamp) {
+        WifiNetworkWriteBuffer.getInstance().setConnectedTimestamp(ssid, timestamp);
+    }
+
+    public static void setConnectedToVpn(String ssid) {
+        WifiNetworkWriteBuffer.getInstance().setConnectedToVpn(ssid);
+    }
+
+    public static void setAllAutoconnectedDisconnected() {
+        Logger.debug("Setting all auto connected networks disconnected");
+        WifiNetworkWriteBuffer.getInstance().setAllAutoconnectedDisconnected();
+    }
+
+    public static void blacklist(String ssid) {
+        WifiNetworkWriteBuffer.getInstance().blacklist(ssid, System.currentTimeMillis());
+    }
+
+    /**
+     * Clears the blacklist and never use flags of the network.
+     */
+    public static void use(String ssid) {
+        WifiNetworkWriteBuffer.getInstance().use(ssid);
+    }
+
+    public static void neverUse(String ssid) {
+        WifiNetworkWriteBuffer.getInstance().neverUse(ssid);
+    }
+
+    public static void recordProbeLatency(String ssid, long latencyMillis) {
+        WifiNetworkWriteBuffer.getInstance().recordProbeLatency(ssid, latencyMillis);
+    }
+
+    public static void recordBypass(String ssid, boolean successful) {
+        WifiNetworkWriteBuffer.getInstance().recordBypass(ssid, successful);
+    }
+
+    /**
+     * Commits buffered writes now rather than at the end of the write window, e.g. when the app
+     * goes to the background.
+     */
+    public static void flush() {
+        WifiNetworkWriteBuffer.getInstance().flush();
+    }
+
+    @WorkerThread
+    public static boolean isAutoconnected(@Nullable WifiConfiguration configuration) {
+        if (configuration == null) {
+            return false;
+        }
+
+        Boolean buffered = WifiNetworkWriteBuffer.getInstance().isAutoconnected(configuration.SSID);
+        if (buffered != null) {
+            return buffered;
+        }
+
+        return Database.getInstance().get(isAutoconnectedQuery(configuration.SSID));
+    }
+
+    public static void isAutoconnected(@Nullable WifiConfiguration configuration,
+                                       Database.Callback<Boolean> callback) {
+        if (configuration == null) {
+            callback.onResult(false);
+            return;
+        }
+
+        Boolean buffered = WifiNetworkWriteBuffer.getInstance().isAutoconnected(configuration.SSID);
+        if (buffered != null) {
+            callback.onResult(buffered);
+        } else {
+            Database.getInstance().query(isAutoconnectedQuery(configuration.SSID), callback);
+        }
+    }
+
+    /**
+     * Delivers which of {@code ssids} have a {@link WifiNetwork}, with one query for all of them.
+     */
+    public static void findKnown(final String[] ssids, Database.Callback<Set<String>> callback) {
+        final Set<String> buffered = new HashSet<>();
+        for (String ssid : ssids) {
+            if (WifiNetworkWriteBuffer.getInstance().willCreate(ssid)) {
+                buffered.add(ssid);
+            }
+        }
+
+        Database.getInstance().query(new Database.Query<Set<String>>() {
+            @Override
+            public Set<String> run(Realm realm) {
+                Set<String> known = new HashSet<>(buffered);
+                if (ssids.length > 0) {
+                    for (WifiNetwork network : realm.where(WifiNetwork.class).in("ssid", ssids).findAll()) {
+                        known.add(network.getSSID());
+                    }
+                }
+                return known;
+            }
+        }, callback);
+    }
+
+    private static Database.Query<Boolean> isAutoconnectedQuery(final String ssid) {
+        return new Database.Query<Boolean>() {
+            @Override
+            public Boolean run(Realm realm) {
+                WifiNetwork network = WifiNetwork.find(realm, ssid);
+                return network != null && network.isAutoconnected();
+            }
+        };
+    }
+}
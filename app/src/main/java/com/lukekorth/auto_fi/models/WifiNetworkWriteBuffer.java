@@ -0,0 +1,295 @@
+package com.lukekorth.auto_fi.models;
+
+import android.support.annotation.Nullable;
+
+import com.lukekorth.auto_fi.utilities.Metrics;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.realm.Realm;
+
+/**
+ * Write behind buffer for {@link WifiNetwork} mutations. Mutations are collected per SSID and
+ * committed together in one transaction once {@link #WINDOW_MILLIS} has passed since the first
+ * one, or right away at the edges of a connection where the change should be seen immediately.
+ * A connect flow then costs one or two commits, and change listeners are notified once per commit
+ * rather than once per field.
+ *
+ * Only one batch is committed at a time and batches are applied in the order they were made.
+ * Mutations that have not been committed yet are visible through {@link #isAutoconnected(String)}
+ * and {@link #willCreate(String)}, so reads of the buffered state don't go back in time.
+ */
+class WifiNetworkWriteBuffer {
+
+    static final long WINDOW_MILLIS = 2000;
+
+    /**
+     * Commits a batch, {@link Database#write(Realm.Transaction, Runnable)} outside of tests.
+     */
+    interface Committer {
+        void commit(Realm.Transaction transaction, Runnable onComplete);
+    }
+
+    private static WifiNetworkWriteBuffer sInstance;
+
+    private final Committer mCommitter;
+    private Batch mPending;
+    private Batch mCommitting;
+
+    static synchronized WifiNetworkWriteBuffer getInstance() {
+        if (sInstance == null) {
+            sInstance = new WifiNetworkWriteBuffer(new Committer() {
+                @Override
+                public void commit(Realm.Transaction transaction, Runnable onComplete) {
+                    Database.getInstance().write(transaction, onComplete);
+                }
+            });
+        }
+
+        return sInstance;
+    }
+
+    WifiNetworkWriteBuffer(Committer committer) {
+        mCommitter = committer;
+    }
+
+    synchronized void setAutoconnected(String ssid) {
+        change(ssid, true).autoconnected = true;
+        schedule();
+    }
+
+    synchronized void setConnectedTimestamp(String ssid, long timestamp) {
+        change(ssid, true).connectedTimestamp = timestamp;
+        schedule();
+    }
+
+    synchronized void setConnectedToVpn(String ssid) {
+        change(ssid, false).connectedToVpn = true;
+        flush();
+    }
+
+    synchronized void setAllAutoconnectedDisconnected() {
+        Batch batch = pending();
+        for (Change change : batch.changes.values()) {
+            change.autoconnected = null;
+        }
+        batch.disconnectAll = true;
+        batch.mutations++;
+        flush();
+    }
+
+    synchronized void blacklist(String ssid, long timestamp) {
+        Change change = change(ssid, true);
+        change.blacklistedTimestamp = timestamp;
+        change.blacklists++;
+        schedule();
+    }
+
+    synchronized void use(String ssid) {
+        Change change = change(ssid, true);
+        change.neverUse = false;
+        change.blacklistedTimestamp = 0L;
+        flush();
+    }
+
+    synchronized void neverUse(String ssid) {
+        change(ssid, true).neverUse = true;
+        flush();
+    }
+
+    synchronized void recordProbeLatency(String ssid, long latencyMillis) {
+        change(ssid, true).probeLatencies.add(latencyMillis);
+        schedule();
+    }
+
+    synchronized void recordBypass(String ssid, boolean successful) {
+        Change change = change(ssid, true);
+        change.bypassAttempts++;
+        if (successful) {
+            change.bypassSuccesses++;
+        }
+        schedule();
+    }
+
+    /**
+     * @return the autoconnected state of {@code ssid} that hasn't been committed yet, or null if
+     *         it hasn't been changed
+     */
+    @Nullable
+    synchronized Boolean isAutoconnected(String ssid) {
+        if (mPending != null && mPending.isAutoconnected(ssid) != null) {
+            return mPending.isAutoconnected(ssid);
+        }
+
+        return mCommitting == null ? null : mCommitting.isAutoconnected(ssid);
+    }
+
+    /**
+     * @return true if a {@link WifiNetwork} for {@code ssid} will be created by a commit that
+     *         hasn't happened yet
+     */
+    synchronized boolean willCreate(String ssid) {
+        return (mPending != null && mPending.willCreate(ssid)) ||
+                (mCommitting != null && mCommitting.willCreate(ssid));
+    }
+
+    synchronized void flush() {
+        final Batch batch = mPending;
+        if (batch == null) {
+            return;
+        }
+
+        if (mCommitting != null) {
+            // committed as soon as the batch before it has been
+            batch.flushRequested = true;
+            return;
+        }
+
+        mPending = null;
+        mCommitting = batch;
+        Metrics.histogram("wifi_networks.write_batch_size").record(batch.mutations);
+
+        mCommitter.commit(new Realm.Transaction() {
+            @Override
+            public void execute(Realm realm) {
+                batch.apply(realm);
+            }
+        }, new Runnable() {
+            @Override
+            public void run() {
+                synchronized (WifiNetworkWriteBuffer.this) {
+                    mCommitting = null;
+                    if (mPending != null && mPending.flushRequested) {
+                        flush();
+                    }
+                }
+            }
+        });
+    }
+
+    private Batch pending() {
+        if (mPending == null) {
+            mPending = new Batch();
+        }
+
+        return mPending;
+    }
+
+    private Change change(String ssid, boolean create) {
+        Batch batch = pending();
+        Change change = batch.changes.get(ssid);
+        if (change == null) {
+            change = new Change();
+            batch.changes.put(ssid, change);
+        }
+
+        change.create |= create;
+        batch.mutations++;
+        return change;
+    }
+
+    private void schedule() {
+        final Batch batch = mPending;
+        if (batch.scheduled) {
+            return;
+        }
+
+        batch.scheduled = true;
+        Database.getInstance().postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (WifiNetworkWriteBuffer.this) {
+                    // the batch may already have been flushed at a connection edge
+                    if (mPending == batch) {
+                        flush();
+                    }
+                }
+            }
+        }, WINDOW_MILLIS);
+    }
+
+    private static class Batch {
+
+        final Map<String, Change> changes = new LinkedHashMap<>();
+        boolean disconnectAll;
+        boolean scheduled;
+        boolean flushRequested;
+        int mutations;
+
+        @Nullable
+        Boolean isAutoconnected(String ssid) {
+            Change change = changes.get(ssid);
+            if (change != null && change.autoconnected != null) {
+                return change.autoconnected;
+            }
+
+            return disconnectAll ? false : null;
+        }
+
+        boolean willCreate(String ssid) {
+            Change change = changes.get(ssid);
+            return change != null && change.create;
+        }
+
+        void apply(Realm realm) {
+            // changes made after the disconnect were recorded on top of it, so it goes first
+            if (disconnectAll) {
+                for (WifiNetwork network : realm.where(WifiNetwork.class).equalTo("autoconnected", true).findAll()) {
+                    network.setAutoconnected(false);
+                }
+            }
+
+            for (Map.Entry<String, Change> entry : changes.entrySet()) {
+                Change change = entry.getValue();
+                WifiNetwork network = change.create ? WifiNetwork.findOrCreate(realm, entry.getKey()) :
+                        WifiNetwork.find(realm, entry.getKey());
+                if (network != null) {
+                    change.apply(network);
+                }
+            }
+        }
+    }
+
+    /**
+     * The fields of one network that have changed, null or zero where they haven't.
+     */
+    private static class Change {
+
+        boolean create;
+        Boolean autoconnected;
+        long connectedTimestamp;
+        boolean connectedToVpn;
+        Long blacklistedTimestamp;
+        int blacklists;
+        Boolean neverUse;
+        final List<Long> probeLatencies = new ArrayList<>();
+        int bypassAttempts;
+        int bypassSuccesses;
+
+        void apply(WifiNetwork network) {
+            if (autoconnected != null) {
+                network.setAutoconnected(autoconnected);
+            }
+            if (connectedTimestamp > 0) {
+                network.setConnectedTimestamp(connectedTimestamp);
+            }
+            if (connectedToVpn) {
+                network.setConnectedToVpn(true);
+            }
+            if (blacklistedTimestamp != null) {
+                network.setBlacklistedTimestamp(blacklistedTimestamp);
+            }
+            if (neverUse != null) {
+                network.setNeverUse(neverUse);
+            }
+            for (long latency : probeLatencies) {
+                network.recordProbeLatency(latency);
+            }
+            network.addBlacklists(blacklists);
+            network.addBypasses(bypassAttempts, bypassSuccesses);
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.lukekorth.auto_fi.network;
+
+import android.support.annotation.Nullable;
+
+import java.util.List;
+
+/**
+ * Scores unsecured access points found in a scan so the one most likely to give a working, fast
+ * connection is chosen, not just the strongest. The score combines signal strength, band and the
+ * network's history: how quickly it answered connectivity checks, VPN throughput over it, how often
+ * its captive portal was bypassed and how often it has been blacklisted.
+ *
+ * History that isn't known yet scores as average, so new networks are neither favored nor avoided.
+ */
+public class CandidateScorer {
+
+    /**
+     * Candidates weaker than this are never chosen.
+     */
+    static final int MIN_RSSI = -88;
+    static final int STRONG_RSSI = -55;
+
+    static final double SIGNAL_WEIGHT = 40;
+    static final double BAND_WEIGHT = 10;
+    static final double LATENCY_WEIGHT = 15;
+    static final double THROUGHPUT_WEIGHT = 20;
+    static final double BYPASS_WEIGHT = 15;
+    static final double BLACKLIST_PENALTY = 10;
+    static final int MAX_BLACKLIST_PENALTIES = 3;
+
+    static final long FAST_PROBE_MILLIS = 100;
+    static final long SLOW_PROBE_MILLIS = 1000;
+    static final long GOOD_BYTES_PER_SECOND = 512 * 1024;
+
+    private static final double UNKNOWN = 0.5;
+
+    public static class Candidate {
+
+        private final String mSsid;
+        private final String mBssid;
+        private final int mRssi;
+        private final int mFrequency;
+        private long mProbeLatencyMillis;
+        private long mBytesPerSecond;
+        private int mBypassAttempts;
+        private int mBypassSuccesses;
+        private int mBlacklistCount;
+
+        /**
+         * @param rssi signal strength in dBm
+         * @param frequency channel frequency in MHz
+         */
+        public Candidate(String ssid, String bssid, int rssi, int frequency) {
+            mSsid = ssid;
+            mBssid = bssid;
+            mRssi = rssi;
+            mFrequency = frequency;
+        }
+
+        /**
+         * @param millis average connectivity check latency, or 0 if unknown
+         */
+        public Candidate probeLatency(long millis) {
+            mProbeLatencyMillis = millis;
+            return this;
+        }
+
+        /**
+         * @param bytesPerSecond average VPN throughput, or 0 if unknown
+         */
+        public Candidate throughput(long bytesPerSecond) {
+            mBytesPerSecond = bytesPerSecond;
+            return this;
+        }
+
+        public Candidate bypasses(int attempts, int successes) {
+            mBypassAttempts = attempts;
+            mBypassSuccesses = successes;
+            return this;
+        }
+
+        public Candidate blacklistCount(int count) {
+            mBlacklistCount = count;
+            return this;
+        }
+
+        public String getSSID() {
+            return mSsid;
+        }
+
+        public String getBSSID() {
+            return mBssid;
+        }
+
+        public int getRssi() {
+            return mRssi;
+        }
+
+        public boolean is5Ghz() {
+            return mFrequency >= 4900;
+        }
+    }
+
+    /**
+     * @return the score of {@code candidate}, or {@link Double#NEGATIVE_INFINITY} if its signal is
+     *         too weak to use
+     */
+    public static double score(Candidate candidate) {
+        if (candidate.mRssi < MIN_RSSI) {
+            return Double.NEGATIVE_INFINITY;
+        }
+
+        double score = SIGNAL_WEIGHT * clamp((double) (candidate.mRssi - MIN_RSSI) / (STRONG_RSSI - MIN_RSSI));
+
+        if (candidate.is5Ghz()) {
+            score += BAND_WEIGHT;
+        }
+
+        if (candidate.mProbeLatencyMillis > 0) {
+            score += LATENCY_WEIGHT * (1 - clamp((double) (candidate.mProbeLatencyMillis - FAST_PROBE_MILLIS) /
+                    (SLOW_PROBE_MILLIS - FAST_PROBE_MILLIS)));
+        } else {
+            score += LATENCY_WEIGHT * UNKNOWN;
+        }
+
+        if (candidate.mBytesPerSecond > 0) {
+            score += THROUGHPUT_WEIGHT * clamp((double) candidate.mBytesPerSecond / GOOD_BYTES_PER_SECOND);
+        } else {
+            score += THROUGHPUT_WEIGHT * UNKNOWN;
+        }
+
+        // smoothed so a single attempt doesn't swing the score all the way
+        score += BYPASS_WEIGHT * (candidate.mBypassSuccesses + 1) / (candidate.mBypassAttempts + 2);
+
+        score -= BLACKLIST_PENALTY * Math.min(candidate.mBlacklistCount, MAX_BLACKLIST_PENALTIES);
+
+        return score;
+    }
+
+    /**
+     * @return the candidate with the highest score, or null if there are none strong enough to use
+     */
+    @Nullable
+    public static Candidate select(List<Candidate> candidates) {
+        Candidate selected = null;
+        double selectedScore = Double.NEGATIVE_INFINITY;
+        for (Candidate candidate : candidates) {
+            double score = score(candidate);
+            if (score > selectedScore) {
+                selected = candidate;
+                selectedScore = score;
+            }
+        }
+
+        return selected;
+    }
+
+    private static double clamp(double value) {
+        return Math.max(0, Math.min(1, value));
+    }
+}
@@ -0,0 +1,101 @@
+package com.lukekorth.auto_fi.network;
+
+import android.support.annotation.WorkerThread;
+import android.util.JsonWriter;
+
+import com.lukekorth.auto_fi.models.CaptivePortalPage;
+import com.lukekorth.auto_fi.utilities.Logger;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import static java.net.HttpURLConnection.HTTP_OK;
+
+/**
+ * Uploads stored captive portal pages as gzipped JSON batches. Every batch is sent through the
+ * shared {@link ControlPlaneClient} so they reuse the same keep-alive connection.
+ *
+ * Request bodies are sent in chunked streaming mode and each page is written through the gzip
+ * stream in small slices, so memory use is bounded by the largest single page rather than by the
+ * size of the batch.
+ */
+public class CaptivePortalPageUploader {
+
+    public static final String UPLOAD_PATH = "/captive-portal-pages/";
+
+    static final int BATCH_SIZE = 10;
+    static final int CHUNK_SIZE = 16 * 1024;
+
+    private ControlPlaneClient mClient;
+
+    public CaptivePortalPageUploader() {
+        this(ControlPlaneClient.getInstance());
+    }
+
+    public CaptivePortalPageUploader(ControlPlaneClient client) {
+        mClient = client;
+    }
+
+    /**
+     * @return the pages the server acknowledged. Uploading stops at the first failed batch so
+     *         the remaining pages are retried on the next connection.
+     */
+    @WorkerThread
+    public List<CaptivePortalPage> upload(List<CaptivePortalPage> pages) {
+        List<CaptivePortalPage> acknowledged = new ArrayList<>();
+
+        for (int i = 0; i < pages.size(); i += BATCH_SIZE) {
+            List<CaptivePortalPage> batch = pages.subList(i, Math.min(pages.size(), i + BATCH_SIZE));
+            try {
+                if (!uploadBatch(batch)) {
+                    break;
+                }
+            } catch (IOException e) {
+                Logger.warn("Captive portal page upload failed. " + e.getMessage());
+                break;
+            }
+
+            acknowledged.addAll(batch);
+        }
+
+        return acknowledged;
+    }
+
+    private boolean uploadBatch(final List<CaptivePortalPage> batch) throws IOException {
+        ControlPlaneClient.Request request = new ControlPlaneClient.Request(UPLOAD_PATH)
+                .header("Content-Type", "application/json; charset=utf-8")
+                .header("Content-Encoding", "gzip")
+                .chunked(CHUNK_SIZE)
+                .post(new ControlPlaneClient.RequestBody() {
+                    @Override
+                    public void writeTo(OutputStream out) throws IOException {
+                        writeBatch(batch, out);
+                    }
+                });
+
+        return mClient.execute(request).getCode() == HTTP_OK;
+    }
+
+    private static void writeBatch(List<CaptivePortalPage> batch, OutputStream out) throws IOException {
+        JsonWriter writer = new JsonWriter(new BufferedWriter(new OutputStreamWriter(
+                new GZIPOutputStream(out, CHUNK_SIZE), "UTF-8"), CHUNK_SIZE));
+        try {
+            writer.beginArray();
+            for (CaptivePortalPage page : batch) {
+                writer.beginObject();
+                writer.name("html").value(page.getHtml());
+                writer.name("hits").value(Math.max(1, page.getHits()));
+                writer.name("last_seen").value(page.getLastSeenTimestamp());
+                writer.endObject();
+            }
+            writer.endArray();
+        } finally {
+            writer.close();
+        }
+    }
+}
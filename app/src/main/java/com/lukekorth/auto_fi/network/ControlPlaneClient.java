@@ -0,0 +1,290 @@
+package com.lukekorth.auto_fi.network;
+
+import android.net.Network;
+import android.os.SystemClock;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+
+import com.lukekorth.auto_fi.BuildConfig;
+import com.lukekorth.auto_fi.utilities.Logger;
+import com.lukekorth.auto_fi.utilities.StreamUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shared HTTP client for every call to the Auto-Fi server. Connections are never
+ * {@code disconnect()}ed and response bodies are always drained so the underlying sockets are
+ * returned to the keep-alive pool, which saves a TCP handshake per request on high latency
+ * hotspot links. Requests can be bound to a specific {@link Network} and share the same timeouts,
+ * retry policy and timing metrics.
+ */
+public class ControlPlaneClient {
+
+    public static final String SERVER_URL = "http://" + BuildConfig.SERVER_IP;
+
+    private static final int CONNECT_TIMEOUT = 30000;
+    private static final int READ_TIMEOUT = 30000;
+    private static final long INITIAL_BACKOFF = 500;
+
+    private static ControlPlaneClient sInstance;
+
+    private final String mBaseUrl;
+    private final ConcurrentHashMap<String, RequestMetrics> mMetrics = new ConcurrentHashMap<>();
+
+    public interface RequestBody {
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    public static class Request {
+
+        private final String mPath;
+        private String mMethod = "GET";
+        private Network mNetwork;
+        private RequestBody mBody;
+        private int mChunkSize;
+        private int mAttempts = 1;
+        private Map<String, String> mHeaders = new HashMap<>();
+
+        public Request(String path) {
+            mPath = path;
+        }
+
+        public Request network(@Nullable Network network) {
+            mNetwork = network;
+            return this;
+        }
+
+        public Request post(RequestBody body) {
+            mMethod = "POST";
+            mBody = body;
+            return this;
+        }
+
+        public Request post(final String body) {
+            return post(new RequestBody() {
+                @Override
+                public void writeTo(OutputStream out) throws IOException {
+                    out.write(body.getBytes("UTF-8"));
+                }
+            });
+        }
+
+        public Request header(String name, String value) {
+            mHeaders.put(name, value);
+            return this;
+        }
+
+        public Request chunked(int chunkSize) {
+            mChunkSize = chunkSize;
+            return this;
+        }
+
+        /**
+         * @param attempts total number of attempts for requests that fail with an
+         *                 {@link IOException} or a server error, with exponential backoff between
+         *                 them
+         */
+        public Request attempts(int attempts) {
+            mAttempts = Math.max(1, attempts);
+            return this;
+        }
+    }
+
+    public static class Response {
+
+        private final int mCode;
+        private final String mBody;
+        private final long mDuration;
+
+        Response(int code, String body, long duration) {
+            mCode = code;
+            mBody = body;
+            mDuration = duration;
+        }
+
+        public int getCode() {
+            return mCode;
+        }
+
+        public String getBody() {
+            return mBody;
+        }
+
+        public long getDuration() {
+            return mDuration;
+        }
+
+        public boolean isSuccessful() {
+            return mCode >= 200 && mCode < 300;
+        }
+    }
+
+    public static class RequestMetrics {
+
+        private final AtomicLong mRequests = new AtomicLong();
+        private final AtomicLong mFailures = new AtomicLong();
+        private final AtomicLong mTotalDuration = new AtomicLong();
+        private final AtomicLong mMaxDuration = new AtomicLong();
+
+        void record(long duration, boolean failed) {
+            mRequests.incrementAndGet();
+            if (failed) {
+                mFailures.incrementAndGet();
+            }
+
+            mTotalDuration.addAndGet(duration);
+            long max = mMaxDuration.get();
+            while (duration > max && !mMaxDuration.compareAndSet(max, duration)) {
+                max = mMaxDuration.get();
+            }
+        }
+
+        public long getRequests() {
+            return mRequests.get();
+        }
+
+        public long getFailures() {
+            return mFailures.get();
+        }
+
+        public long getAverageDuration() {
+            long requests = mRequests.get();
+            return requests == 0 ? 0 : mTotalDuration.get() / requests;
+        }
+
+        public long getMaxDuration() {
+            return mMaxDuration.get();
+        }
+
+        @Override
+        public String toString() {
+            return "requests=" + getRequests() + " failures=" + getFailures() + " avg=" +
+                    getAverageDuration() + "ms max=" + getMaxDuration() + "ms";
+        }
+    }
+
+    static {
+        System.setProperty("http.keepAlive", "true");
+    }
+
+    public static synchronized ControlPlaneClient getInstance() {
+        if (sInstance == null) {
+            sInstance = new ControlPlaneClient(SERVER_URL);
+        }
+
+        return sInstance;
+    }
+
+    public ControlPlaneClient(String baseUrl) {
+        mBaseUrl = baseUrl;
+    }
+
+    @WorkerThread
+    public Response execute(Request request) throws IOException {
+        IOException lastException = null;
+        Response response = null;
+
+        for (int attempt = 0; attempt < request.mAttempts; attempt++) {
+            if (attempt > 0) {
+                SystemClock.sleep(INITIAL_BACKOFF << (attempt - 1));
+            }
+
+            long start = SystemClock.elapsedRealtime();
+            try {
+                response = executeOnce(request, start);
+                getMetrics(request.mPath).record(response.getDuration(), !response.isSuccessful());
+                Logger.debug(request.mMethod + " " + request.mPath + " returned " + response.getCode() +
+                        " in " + response.getDuration() + "ms");
+
+                if (response.getCode() < 500) {
+                    return response;
+                }
+            } catch (IOException e) {
+                long duration = SystemClock.elapsedRealtime() - start;
+                getMetrics(request.mPath).record(duration, true);
+                Logger.debug(request.mMethod + " " + request.mPath + " failed after " + duration + "ms. " +
+                        e.getMessage());
+
+                lastException = e;
+            }
+        }
+
+        if (response != null) {
+            return response;
+        }
+
+        throw lastException;
+    }
+
+    /**
+     * @return a snapshot of the timing metrics for each request path
+     */
+    public Map<String, RequestMetrics> getMetrics() {
+        return Collections.unmodifiableMap(new LinkedHashMap<>(mMetrics));
+    }
+
+    private RequestMetrics getMetrics(String path) {
+        RequestMetrics metrics = mMetrics.get(path);
+        if (metrics == null) {
+            mMetrics.putIfAbsent(path, new RequestMetrics());
+            metrics = mMetrics.get(path);
+        }
+
+        return metrics;
+    }
+
+    private Response executeOnce(Request request, long start) throws IOException {
+        URL url = new URL(mBaseUrl + request.mPath);
+        HttpURLConnection connection;
+        if (request.mNetwork != null) {
+            connection = (HttpURLConnection) request.mNetwork.openConnection(url);
+        } else {
+            connection = (HttpURLConnection) url.openConnection();
+        }
+
+        connection.setUseCaches(false);
+        connection.setConnectTimeout(CONNECT_TIMEOUT);
+        connection.setReadTimeout(READ_TIMEOUT);
+        connection.setRequestMethod(request.mMethod);
+        for (Map.Entry<String, String> header : request.mHeaders.entrySet()) {
+            connection.setRequestProperty(header.getKey(), header.getValue());
+        }
+
+        if (request.mBody != null) {
+            connection.setDoOutput(true);
+            if (request.mChunkSize > 0) {
+                connection.setChunkedStreamingMode(request.mChunkSize);
+            }
+
+            OutputStream out = connection.getOutputStream();
+            try {
+                request.mBody.writeTo(out);
+            } finally {
+                out.close();
+            }
+        }
+
+        int responseCode = connection.getResponseCode();
+        InputStream in = responseCode < 400 ? connection.getInputStream() : connection.getErrorStream();
+        String body = "";
+        if (in != null) {
+            try {
+                body = StreamUtils.readStream(in);
+            } finally {
+                in.close();
+            }
+        }
+
+        return new Response(responseCode, body, SystemClock.elapsedRealtime() - start);
+    }
+}
@@ -0,0 +1,124 @@
+package com.lukekorth.auto_fi.openvpn;
+
+import android.os.SystemClock;
+import android.support.annotation.Nullable;
+
+import com.lukekorth.auto_fi.models.DataUsage;
+import com.lukekorth.auto_fi.utilities.Logger;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Accumulates the byte counts OpenVPN reports every {@code BYTECOUNT} interval in memory and
+ * writes them to {@link DataUsage} on its own thread once a minute, when the connection state
+ * changes and when the connection is shut down, so the management thread never waits on a Realm
+ * write transaction. Traffic is attributed to the network set with {@link #setNetwork}.
+ *
+ * Active time only counts the intervals between byte counts in which traffic was seen, so idle
+ * stretches of a bursty session don't dilute its throughput.
+ */
+class DataUsageAccumulator {
+
+    static final long FLUSH_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+    // longer gaps between byte counts mean the connection was held or restarting
+    static final long MAX_BYTE_COUNT_GAP = TimeUnit.SECONDS.toMillis(10);
+
+    private final AtomicLong mPendingBytesIn = new AtomicLong();
+    private final AtomicLong mPendingBytesOut = new AtomicLong();
+    private final AtomicLong mPendingActiveMillis = new AtomicLong();
+    private final ScheduledExecutorService mExecutor = Executors.newSingleThreadScheduledExecutor();
+    private long mLastBytesIn;
+    private long mLastBytesOut;
+    private long mLastByteCountAt;
+
+    // only accessed on the executor thread
+    private String mSsid;
+    private String mBssid;
+
+    private final Runnable mFlush = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    DataUsageAccumulator() {
+        mExecutor.scheduleWithFixedDelay(mFlush, FLUSH_INTERVAL, FLUSH_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Must only be called from the management thread.
+     *
+     * @param totalBytesIn bytes received since OpenVPN started the connection
+     * @param totalBytesOut bytes sent since OpenVPN started the connection
+     */
+    void onByteCount(long totalBytesIn, long totalBytesOut) {
+        // OpenVPN's counters start over when it restarts the connection
+        long bytesIn = totalBytesIn >= mLastBytesIn ? totalBytesIn - mLastBytesIn : totalBytesIn;
+        long bytesOut = totalBytesOut >= mLastBytesOut ? totalBytesOut - mLastBytesOut : totalBytesOut;
+        mLastBytesIn = totalBytesIn;
+        mLastBytesOut = totalBytesOut;
+
+        long now = SystemClock.elapsedRealtime();
+        if ((bytesIn > 0 || bytesOut > 0) && mLastByteCountAt > 0) {
+            mPendingActiveMillis.addAndGet(Math.min(now - mLastByteCountAt, MAX_BYTE_COUNT_GAP));
+        }
+        mLastByteCountAt = now;
+
+        mPendingBytesIn.addAndGet(bytesIn);
+        mPendingBytesOut.addAndGet(bytesOut);
+    }
+
+    /**
+     * Flushes traffic recorded so far to the previous network and attributes further traffic to
+     * this one.
+     */
+    void setNetwork(@Nullable final String ssid, @Nullable final String bssid) {
+        try {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    flush();
+                    mSsid = ssid;
+                    mBssid = bssid;
+                }
+            });
+        } catch (RejectedExecutionException ignored) {}
+    }
+
+    void flushAsync() {
+        try {
+            mExecutor.execute(mFlush);
+        } catch (RejectedExecutionException ignored) {}
+    }
+
+    /**
+     * Flushes anything pending and stops the flush timer.
+     */
+    void shutdown() {
+        flushAsync();
+        mExecutor.shutdown();
+    }
+
+    private void flush() {
+        long bytesIn = mPendingBytesIn.getAndSet(0);
+        long bytesOut = mPendingBytesOut.getAndSet(0);
+        long activeMillis = mPendingActiveMillis.getAndSet(0);
+        if (bytesIn == 0 && bytesOut == 0) {
+            return;
+        }
+
+        try {
+            DataUsage.addUsage(mSsid, mBssid, bytesIn, bytesOut, mSsid == null ? 0 : activeMillis);
+        } catch (RuntimeException e) {
+            Logger.error(e);
+            mPendingBytesIn.addAndGet(bytesIn);
+            mPendingBytesOut.addAndGet(bytesOut);
+            mPendingActiveMillis.addAndGet(activeMillis);
+        }
+    }
+}
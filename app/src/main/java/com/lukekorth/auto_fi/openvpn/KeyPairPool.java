@@ -0,0 +1,173 @@
+package com.lukekorth.auto_fi.openvpn;
+
+import android.app.job.JobInfo;
+import android.app.job.JobScheduler;
+import android.content.ComponentName;
+import android.content.Context;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+import android.util.Base64;
+
+import com.lukekorth.auto_fi.services.KeyProvisioningJobService;
+import com.lukekorth.auto_fi.utilities.FileUtils;
+import com.lukekorth.auto_fi.utilities.Logger;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+
+/**
+ * Keeps a key pair generated ahead of time so requesting a new certificate only costs a network
+ * round trip. The pool is refilled by {@link KeyProvisioningJobService} while the device is
+ * charging or idle.
+ */
+public class KeyPairPool {
+
+    public enum Algorithm {
+        RSA_2048("RSA", 2048, "SHA256withRSA"),
+        RSA_3072("RSA", 3072, "SHA256withRSA"),
+        EC_P256("EC", 256, "SHA256withECDSA");
+
+        private final String mKeyAlgorithm;
+        private final int mKeySize;
+        private final String mSignatureAlgorithm;
+
+        Algorithm(String keyAlgorithm, int keySize, String signatureAlgorithm) {
+            mKeyAlgorithm = keyAlgorithm;
+            mKeySize = keySize;
+            mSignatureAlgorithm = signatureAlgorithm;
+        }
+
+        public String getKeyAlgorithm() {
+            return mKeyAlgorithm;
+        }
+
+        public String getSignatureAlgorithm() {
+            return mSignatureAlgorithm;
+        }
+    }
+
+    /**
+     * P-256 generates in a few milliseconds where RSA 2048 can take seconds on older devices, but
+     * the server has to accept EC certificate requests before this can be switched.
+     */
+    public static final Algorithm ALGORITHM = Algorithm.RSA_2048;
+
+    private static final String POOLED_KEY_PAIR_FILE = "pooled_key_pair";
+    private static final int CHARGING_JOB_ID = 100;
+    private static final int IDLE_JOB_ID = 101;
+
+    private static final Object sLock = new Object();
+
+    public static KeyPair generate(Algorithm algorithm) throws GeneralSecurityException {
+        KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance(algorithm.getKeyAlgorithm());
+        if (algorithm == Algorithm.EC_P256) {
+            keyPairGenerator.initialize(new ECGenParameterSpec("secp256r1"));
+        } else {
+            keyPairGenerator.initialize(algorithm.mKeySize);
+        }
+
+        return keyPairGenerator.generateKeyPair();
+    }
+
+    public static boolean hasKeyPair(Context context) {
+        return FileUtils.isAvailable(context, POOLED_KEY_PAIR_FILE);
+    }
+
+    /**
+     * Generates and stores a key pair if the pool is empty.
+     */
+    @WorkerThread
+    public static void fill(Context context) {
+        synchronized (sLock) {
+            if (hasKeyPair(context)) {
+                return;
+            }
+
+            try {
+                long start = System.currentTimeMillis();
+                KeyPair keyPair = generate(ALGORITHM);
+                Logger.debug("Generated " + ALGORITHM + " key pair in " + (System.currentTimeMillis() - start) + "ms");
+
+                FileUtils.write(context, ALGORITHM.name() + "\n" +
+                        Base64.encodeToString(keyPair.getPublic().getEncoded(), Base64.NO_WRAP) + "\n" +
+                        Base64.encodeToString(keyPair.getPrivate().getEncoded(), Base64.NO_WRAP) + "\n",
+                        POOLED_KEY_PAIR_FILE);
+            } catch (GeneralSecurityException | IOException e) {
+                Logger.error(e);
+            }
+        }
+    }
+
+    /**
+     * Removes the pooled key pair and returns it, generating one inline if the pool is empty.
+     */
+    @WorkerThread
+    public static KeyPair take(Context context) throws GeneralSecurityException {
+        synchronized (sLock) {
+            KeyPair keyPair = read(context);
+            FileUtils.get(context, POOLED_KEY_PAIR_FILE).delete();
+            schedule(context);
+
+            if (keyPair != null) {
+                return keyPair;
+            }
+        }
+
+        Logger.debug("No pooled key pair available, generating one");
+        return generate(ALGORITHM);
+    }
+
+    /**
+     * Schedules the pool to be refilled the next time the device is charging or idle.
+     */
+    public static void schedule(Context context) {
+        if (hasKeyPair(context)) {
+            return;
+        }
+
+        JobScheduler jobScheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        ComponentName component = new ComponentName(context, KeyProvisioningJobService.class);
+
+        jobScheduler.schedule(new JobInfo.Builder(CHARGING_JOB_ID, component)
+                .setRequiresCharging(true)
+                .build());
+        jobScheduler.schedule(new JobInfo.Builder(IDLE_JOB_ID, component)
+                .setRequiresDeviceIdle(true)
+                .build());
+    }
+
+    @Nullable
+    private static KeyPair read(Context context) {
+        if (!hasKeyPair(context)) {
+            return null;
+        }
+
+        try {
+            String[] lines = FileUtils.read(context, POOLED_KEY_PAIR_FILE).split("\\r?\\n");
+            Algorithm algorithm = Algorithm.valueOf(lines[0]);
+            if (algorithm != ALGORITHM) {
+                return null;
+            }
+
+            KeyFactory keyFactory = KeyFactory.getInstance(algorithm.getKeyAlgorithm());
+            PublicKey publicKey = keyFactory.generatePublic(
+                    new X509EncodedKeySpec(Base64.decode(lines[1], Base64.NO_WRAP)));
+            PrivateKey privateKey = keyFactory.generatePrivate(
+                    new PKCS8EncodedKeySpec(Base64.decode(lines[2], Base64.NO_WRAP)));
+
+            return new KeyPair(publicKey, privateKey);
+        } catch (IOException | GeneralSecurityException | IllegalArgumentException |
+                ArrayIndexOutOfBoundsException e) {
+            Logger.warn("Discarding unreadable pooled key pair. " + e.getMessage());
+            return null;
+        }
+    }
+}
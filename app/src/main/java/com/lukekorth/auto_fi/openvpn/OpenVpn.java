@@ -3,13 +3,16 @@ package com.lukekorth.auto_fi.openvpn;
 import android.content.Context;
 import android.net.VpnService;
 import android.os.Build;
+import android.os.Bundle;
 import android.os.Handler.Callback;
 import android.os.Message;
 import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
 import android.support.annotation.MainThread;
 import android.system.OsConstants;
 import android.text.TextUtils;
 
+import com.google.firebase.analytics.FirebaseAnalytics;
 import com.lukekorth.auto_fi.R;
 import com.lukekorth.auto_fi.interfaces.Vpn;
 import com.lukekorth.auto_fi.interfaces.VpnServiceInterface;
@@ -17,6 +20,7 @@ import com.lukekorth.auto_fi.network.CIDRIP;
 import com.lukekorth.auto_fi.network.IPAddress;
 import com.lukekorth.auto_fi.network.NetworkSpace;
 import com.lukekorth.auto_fi.utilities.Logger;
+import com.lukekorth.auto_fi.utilities.Metrics;
 
 import java.net.Inet6Address;
 import java.net.InetAddress;
@@ -40,18 +44,33 @@ public class OpenVpn implements Vpn, Callback {
     private String mRemoteGateway;
     private Context mContext;
     private VpnServiceInterface mVpnService;
+    private boolean mHoldUntilReleased;
+    private volatile long mConnectRequestedAt;
 
     public OpenVpn(Context context, VpnServiceInterface vpnServiceInterface) {
+        this(context, vpnServiceInterface, false);
+    }
+
+    /**
+     * @param holdUntilReleased start the OpenVPN process, but keep it in the management hold
+     *                          state until {@link #releaseHold()} is called. This moves socket
+     *                          setup and process start off of the connect path.
+     */
+    public OpenVpn(Context context, VpnServiceInterface vpnServiceInterface, boolean holdUntilReleased) {
         mContext = context;
         mVpnService = vpnServiceInterface;
+        mHoldUntilReleased = holdUntilReleased;
     }
 
     @MainThread
     @Override
     public void start() {
-        mVpnService.setNotificationMessage(R.string.building_configuration);
+        if (!mHoldUntilReleased) {
+            mConnectRequestedAt = SystemClock.elapsedRealtime();
+            mVpnService.setNotificationMessage(R.string.building_configuration);
+        }
 
-        mManagementThread = new OpenVpnManagementThread(this);
+        mManagementThread = new OpenVpnManagementThread(mContext, this, mHoldUntilReleased);
         if (mManagementThread.openManagementConnection(mContext)) {
             new Thread(mManagementThread, "OpenVPNManagementThread").start();
             Logger.info("Started OpenVPN management thread");
@@ -68,6 +87,36 @@ public class OpenVpn implements Vpn, Callback {
         mManagementThread.stopVPN();
     }
 
+    @MainThread
+    @Override
+    public void releaseHold() {
+        mConnectRequestedAt = SystemClock.elapsedRealtime();
+        mManagementThread.releaseHold();
+    }
+
+    /**
+     * Logs the time from the connection being requested to OpenVPN reporting CONNECTED, once per
+     * connection request.
+     */
+    void connected() {
+        long connectRequestedAt = mConnectRequestedAt;
+        if (connectRequestedAt == 0) {
+            return;
+        }
+        mConnectRequestedAt = 0;
+
+        long timeToConnected = SystemClock.elapsedRealtime() - connectRequestedAt;
+        Logger.info("Time to CONNECTED: " + timeToConnected + "ms (" +
+                (mHoldUntilReleased ? "warm" : "cold") + " start)");
+        Metrics.histogram(mHoldUntilReleased ? "vpn.time_to_connected_ms.warm" : "vpn.time_to_connected_ms.cold")
+                .record(timeToConnected);
+
+        Bundle bundle = new Bundle();
+        bundle.putLong(FirebaseAnalytics.Param.VALUE, timeToConnected);
+        bundle.putBoolean("warm_start", mHoldUntilReleased);
+        FirebaseAnalytics.getInstance(mContext).logEvent("vpn_time_to_connected", bundle);
+    }
+
     VpnServiceInterface getVpnService() {
         return mVpnService;
     }
@@ -1,17 +1,24 @@
 package com.lukekorth.auto_fi.openvpn;
 
 import android.content.Context;
+import android.content.SharedPreferences;
 import android.os.Build;
 import android.support.annotation.Nullable;
 
 import com.lukekorth.auto_fi.BuildConfig;
+import com.lukekorth.auto_fi.models.Settings;
+import com.lukekorth.auto_fi.utilities.AssetExtractor;
 import com.lukekorth.auto_fi.utilities.FileUtils;
+import com.lukekorth.auto_fi.utilities.HashUtils;
 import com.lukekorth.auto_fi.utilities.Logger;
+import com.lukekorth.auto_fi.utilities.StreamUtils;
+import com.lukekorth.auto_fi.utilities.WifiHelper;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 public class OpenVpnConfiguration {
 
@@ -19,6 +26,12 @@ public class OpenVpnConfiguration {
     private static final String PRIVATE_KEY_FILE = "open_vpn_private_key.key";
     private static final String CONFIGURATION_FILE = "open_vpn_client_configuration.ovpn";
     private static final String VPN_EXECUTABLE = "openvpn_executable";
+    private static final String KEY_ROTATION_REQUESTED = "key_rotation_requested";
+    private static final String CONFIGURATION_HASH = "open_vpn_configuration_hash";
+    private static final int[] REMOTE_PORTS = { 443, 80, 53, 3128 };
+    private static final int TCP_REMOTE_PORT = 443;
+
+    private static volatile String sConfigurationHash;
 
     public static boolean isSetup(Context context) {
         return FileUtils.isAvailable(context, PUBLIC_KEY_FILE) &&
@@ -30,10 +43,28 @@ public class OpenVpnConfiguration {
         FileUtils.get(context, PRIVATE_KEY_FILE).delete();
     }
 
+    /**
+     * Requests a new key pair and certificate without discarding the current ones, which keep
+     * being used until the replacement has been signed.
+     */
+    public static void requestKeyRotation(Context context) {
+        Settings.getPrefs(context).edit()
+                .putBoolean(KEY_ROTATION_REQUESTED, true)
+                .apply();
+    }
+
+    public static boolean isKeyRotationRequested(Context context) {
+        return Settings.getPrefs(context).getBoolean(KEY_ROTATION_REQUESTED, false);
+    }
+
     public static void writeKeyPair(Context context, String publicKey, String privateKey)
             throws IOException {
         FileUtils.write(context, publicKey, PUBLIC_KEY_FILE);
         FileUtils.write(context, privateKey, PRIVATE_KEY_FILE);
+
+        Settings.getPrefs(context).edit()
+                .putBoolean(KEY_ROTATION_REQUESTED, false)
+                .apply();
     }
 
     @Nullable
@@ -47,7 +78,7 @@ public class OpenVpnConfiguration {
         }
 
         try {
-            writeConfigurationFile(context);
+            writeConfigurationFile(context, getRemotes(context));
         } catch (IOException e) {
             Logger.error("Error writing OpenVPN configuration file");
             return null;
@@ -60,23 +91,84 @@ public class OpenVpnConfiguration {
         return command;
     }
 
-    private static void writeConfigurationFile(Context context) throws IOException {
-        InputStream in = context.getAssets().open(CONFIGURATION_FILE);
-        byte[] buffer = new byte[in.available()];
-        in.read(buffer);
-        in.close();
+    /**
+     * Probes the remotes in the background over the wifi network that has just associated, so the
+     * connection that follows can start with one that answers.
+     */
+    public static void probeRemotes(Context context) {
+        WifiHelper wifiHelper = new WifiHelper(context);
+        RemoteSelector.probeInBackground(context.getApplicationContext(), BuildConfig.SERVER_IP,
+                getDefaultRemotes(), wifiHelper.getCurrentBssid(), wifiHelper.getConnectedNetwork());
+    }
+
+    /**
+     * @return the remotes ordered by what is cached for the current wifi network. While OpenVPN is
+     *         pre-warmed before wifi has associated the default order is used.
+     */
+    private static List<RemoteSelector.Remote> getRemotes(Context context) {
+        return RemoteSelector.order(context, getDefaultRemotes(), new WifiHelper(context).getCurrentBssid());
+    }
+
+    private static List<RemoteSelector.Remote> getDefaultRemotes() {
+        List<RemoteSelector.Remote> remotes = new ArrayList<>();
+        for (int port : REMOTE_PORTS) {
+            remotes.add(new RemoteSelector.Remote(RemoteSelector.UDP, port));
+        }
+        remotes.add(new RemoteSelector.Remote(RemoteSelector.TCP, TCP_REMOTE_PORT));
+
+        return remotes;
+    }
+
+    /**
+     * Renders the configuration asset with the server, remotes, management socket and keys filled
+     * in. The rendered file is only rewritten when the hash of its inputs changes, which keeps file
+     * I/O off of the connect path after the first connection.
+     */
+    private static void writeConfigurationFile(Context context, List<RemoteSelector.Remote> remotes)
+            throws IOException {
+        StringBuilder remoteLines = new StringBuilder();
+        for (RemoteSelector.Remote remote : remotes) {
+            remoteLines.append("remote ").append(BuildConfig.SERVER_IP).append(" ")
+                    .append(remote.getPort()).append(" ").append(remote.getProto()).append("\n");
+        }
+
+        String socketPath = context.getCacheDir().getAbsolutePath() + "/mgmtsocket";
+        File publicKeyFile = FileUtils.get(context, PUBLIC_KEY_FILE);
+        File privateKeyFile = FileUtils.get(context, PRIVATE_KEY_FILE);
+
+        String inputsHash = HashUtils.sha256(Integer.toString(BuildConfig.VERSION_CODE),
+                BuildConfig.SERVER_IP, remoteLines.toString(), socketPath,
+                publicKeyFile.lastModified() + ":" + publicKeyFile.length(),
+                privateKeyFile.lastModified() + ":" + privateKeyFile.length());
+
+        if (inputsHash.equals(sConfigurationHash) && FileUtils.isAvailable(context, CONFIGURATION_FILE)) {
+            return;
+        }
+
+        SharedPreferences prefs = Settings.getPrefs(context);
+        if (inputsHash.equals(prefs.getString(CONFIGURATION_HASH, null)) &&
+                FileUtils.isAvailable(context, CONFIGURATION_FILE)) {
+            sConfigurationHash = inputsHash;
+            return;
+        }
+
+        Logger.debug("OpenVPN configuration inputs changed, rendering configuration");
 
         String publicKey = FileUtils.read(context, PUBLIC_KEY_FILE);
         String privateKey = FileUtils.read(context, PRIVATE_KEY_FILE);
 
-        String configuration = new String(buffer);
-        configuration = configuration.replace("<- server here ->", BuildConfig.SERVER_IP);
-        configuration = configuration.replace("<- management string here ->",
-                context.getCacheDir().getAbsolutePath() + "/mgmtsocket unix");
+        String configuration = StreamUtils.getAsset(context, CONFIGURATION_FILE);
+        configuration = configuration.replace("<- remotes here ->\n", remoteLines.toString());
+        configuration = configuration.replace("<- management string here ->", socketPath + " unix");
         configuration = configuration.replace("<- public key here ->\n", publicKey);
         configuration = configuration.replace("<- private key here ->\n", privateKey);
 
         FileUtils.write(context, configuration, CONFIGURATION_FILE);
+
+        prefs.edit()
+                .putString(CONFIGURATION_HASH, inputsHash)
+                .apply();
+        sConfigurationHash = inputsHash;
     }
 
     @Nullable
@@ -91,17 +183,13 @@ public class OpenVpnConfiguration {
         }
 
         for (String abi: abis) {
-            if (!FileUtils.isAvailable(context, VPN_EXECUTABLE + "." + abi)) {
-                try {
-                    File file = FileUtils.writeAssetFileToDisk(context, VPN_EXECUTABLE + "." + abi, true);
-                    if (file != null) {
-                        return file.getAbsolutePath();
-                    }
-                } catch (IOException e) {
-                    Logger.error(e);
+            try {
+                File file = AssetExtractor.extract(context, VPN_EXECUTABLE + "." + abi, true);
+                if (file != null) {
+                    return file.getAbsolutePath();
                 }
-            } else {
-                return FileUtils.get(context, VPN_EXECUTABLE + "." + abi).getAbsolutePath();
+            } catch (IOException e) {
+                Logger.error(e);
             }
         }
 
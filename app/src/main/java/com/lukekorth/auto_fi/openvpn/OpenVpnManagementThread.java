@@ -4,14 +4,17 @@ import android.content.Context;
 import android.net.LocalServerSocket;
 import android.net.LocalSocket;
 import android.net.LocalSocketAddress;
-import android.os.Handler;
-import android.os.Looper;
 import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
 
 import com.lukekorth.auto_fi.R;
-import com.lukekorth.auto_fi.models.DataUsage;
+import com.lukekorth.auto_fi.jobs.CancellationToken;
+import com.lukekorth.auto_fi.jobs.Job;
+import com.lukekorth.auto_fi.jobs.JobRunner;
 import com.lukekorth.auto_fi.network.ProxyDetection;
 import com.lukekorth.auto_fi.utilities.Logger;
+import com.lukekorth.auto_fi.utilities.Tracer;
+import com.lukekorth.auto_fi.utilities.WifiHelper;
 
 import java.io.FileDescriptor;
 import java.io.IOException;
@@ -29,15 +32,24 @@ class OpenVpnManagementThread implements Runnable {
 
     private static final int BYTE_COUNT_INTERVAL = 2;
 
+    private Context mContext;
     private LocalSocket mSocket;
     private OpenVpn mOpenVpn;
     private LinkedList<FileDescriptor> mFDList = new LinkedList<>();
     private LocalServerSocket mServerSocket;
-    private long mPreviousKilobytesUsed = 0;
+    private DataUsageAccumulator mDataUsage;
+    private VpnMetrics mMetrics = new VpnMetrics();
     private boolean mShuttingDown;
+    private boolean mHoldUntilReleased;
+    private boolean mHoldPending;
+    private TransportSelector mTransportSelector;
+    private volatile CancellationToken mHoldRelease;
 
-    OpenVpnManagementThread(OpenVpn openVpn) {
+    OpenVpnManagementThread(Context context, OpenVpn openVpn, boolean holdUntilReleased) {
         mOpenVpn = openVpn;
+        mHoldUntilReleased = holdUntilReleased;
+        mContext = context;
+        mTransportSelector = new TransportSelector(context, openVpn.getVpnService().getWifiHelper());
     }
 
     boolean openManagementConnection(Context context) {
@@ -79,6 +91,7 @@ class OpenVpnManagementThread implements Runnable {
 
     @Override
     public void run() {
+        mDataUsage = new DataUsageAccumulator();
         try {
             mSocket = mServerSocket.accept();
             InputStream inputStream = mSocket.getInputStream();
@@ -108,6 +121,12 @@ class OpenVpnManagementThread implements Runnable {
             if (!e.getMessage().equals("socket closed") && !e.getMessage().equals("Connection reset by peer")) {
                 Logger.error(e);
             }
+        } finally {
+            CancellationToken holdRelease = mHoldRelease;
+            if (holdRelease != null) {
+                holdRelease.cancel();
+            }
+            mDataUsage.shutdown();
         }
     }
 
@@ -167,6 +186,9 @@ class OpenVpnManagementThread implements Runnable {
                 case "PROXY":
                     processProxyCommand(argument);
                     break;
+                case "REMOTE":
+                    sendManagementCommand(mTransportSelector.onRemote(argument));
+                    break;
                 case "LOG":
                     processLogMessage(argument);
                     break;
@@ -189,13 +211,11 @@ class OpenVpnManagementThread implements Runnable {
      */
     private void processByteCount(String argument) {
         int comma = argument.indexOf(',');
-        long kilobytes = Long.parseLong(argument.substring(0, comma)) / 1024;
-        kilobytes += Long.parseLong(argument.substring(comma + 1)) / 1024;
+        long bytesIn = Long.parseLong(argument.substring(0, comma));
+        long bytesOut = Long.parseLong(argument.substring(comma + 1));
 
-        if (kilobytes - mPreviousKilobytesUsed > 1024) {
-            DataUsage.addUsage(kilobytes - mPreviousKilobytesUsed);
-            mPreviousKilobytesUsed = kilobytes;
-        }
+        mDataUsage.onByteCount(bytesIn, bytesOut);
+        mMetrics.onByteCount(bytesIn, bytesOut);
     }
 
     private void processLogMessage(String argument) {
@@ -216,18 +236,39 @@ class OpenVpnManagementThread implements Runnable {
         }
     }
 
+    /**
+     * Releases a hold requested at construction, either immediately if OpenVPN is already waiting
+     * or as soon as it reports {@code >HOLD}.
+     */
+    synchronized void releaseHold() {
+        mHoldUntilReleased = false;
+        if (mHoldPending) {
+            mHoldPending = false;
+            Logger.info("Releasing OpenVPN from warm standby");
+            releaseHoldCommand();
+        }
+    }
+
     private void handleHold(String argument) {
+        synchronized (this) {
+            if (mHoldUntilReleased) {
+                Logger.info("OpenVPN is ready and waiting in warm standby");
+                mHoldPending = true;
+                return;
+            }
+        }
+
         int waitTime = 0;
         try {
             waitTime = Integer.parseInt(argument.split(":")[1]);
         } catch (Exception ignored) {}
         if (waitTime > 1) {
-            new Handler(Looper.getMainLooper()).postDelayed(new Runnable() {
+            mHoldRelease = JobRunner.submit(new JobRunner.Request("openvpn_hold_release", new Job() {
                 @Override
-                public void run() {
+                public void run(CancellationToken token) {
                     releaseHoldCommand();
                 }
-            }, waitTime * 1000);
+            }).delay(waitTime * 1000));
         } else {
             releaseHoldCommand();
         }
@@ -243,11 +284,8 @@ class OpenVpnManagementThread implements Runnable {
         String[] args = argument.split(",", 3);
         SocketAddress proxyaddr = ProxyDetection.detectProxy();
 
-        if (args.length >= 2) {
-            String proto = args[1];
-            if (proto.equals("UDP")) {
-                proxyaddr = null;
-            }
+        if (args.length >= 2 && !TransportSelector.canUseProxy(args[1])) {
+            proxyaddr = null;
         }
 
         if (proxyaddr instanceof InetSocketAddress) {
@@ -264,15 +302,27 @@ class OpenVpnManagementThread implements Runnable {
     private void processState(String argument) {
         String[] args = argument.split(",", 3);
         String currentState = args[1];
+        String reason = args.length > 2 ? args[2] : null;
 
+        mMetrics.onState(currentState, reason);
+        Tracer.mark(mOpenVpn.getVpnService().getTraceId(), "openvpn_" + currentState.toLowerCase(Locale.US));
         mOpenVpn.getVpnService().setNotificationMessage(getLocalizedState(currentState));
+        mDataUsage.flushAsync();
 
         switch (currentState) {
             case "CONNECTED":
+                WifiHelper wifiHelper = mOpenVpn.getVpnService().getWifiHelper();
+                mDataUsage.setNetwork(wifiHelper.getCurrentNetworkName(), wifiHelper.getCurrentBssid());
+                mTransportSelector.onConnected();
+                mOpenVpn.connected();
+                Tracer.finish(mContext, mOpenVpn.getVpnService().getTraceId(), "connected");
                 mOpenVpn.getVpnService().successfullyConnected();
                 break;
-            case "DISCONNECTED":
             case "RECONNECTING":
+                mTransportSelector.onReconnecting(reason);
+                checkWifiConnection();
+                break;
+            case "DISCONNECTED":
                 checkWifiConnection();
                 break;
         }
@@ -355,7 +405,9 @@ class OpenVpnManagementThread implements Runnable {
             return false;
         }
 
+        long start = SystemClock.elapsedRealtime();
         ParcelFileDescriptor pfd = mOpenVpn.openTun();
+        mMetrics.onTunOpened(SystemClock.elapsedRealtime() - start);
         if (pfd == null) {
             return false;
         }
@@ -391,7 +443,7 @@ class OpenVpnManagementThread implements Runnable {
         return false;
     }
 
-    private void sendManagementCommand(String command) {
+    private synchronized void sendManagementCommand(String command) {
         try {
             if (mSocket != null && mSocket.getOutputStream() != null) {
                 mSocket.getOutputStream().write(command.getBytes());
@@ -0,0 +1,350 @@
+package com.lukekorth.auto_fi.openvpn;
+
+import android.content.Context;
+import android.net.Network;
+import android.os.SystemClock;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+import android.text.TextUtils;
+
+import com.lukekorth.auto_fi.jobs.CancellationToken;
+import com.lukekorth.auto_fi.jobs.Job;
+import com.lukekorth.auto_fi.jobs.JobRunner;
+import com.lukekorth.auto_fi.models.Settings;
+import com.lukekorth.auto_fi.utilities.Logger;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Orders the OpenVPN remotes for a network by racing reachability probes to all of them in
+ * parallel, so OpenVPN starts with a remote that is known to answer instead of waiting through
+ * connect retries on ports the network blocks. TCP probes start {@link #TCP_STAGGER} after the UDP
+ * probes, so UDP is preferred unless it is blocked or noticeably slower.
+ *
+ * Probes run in the background as soon as wifi has associated and their result is cached per
+ * BSSID, so building the OpenVPN command never waits for them. A pre-warmed OpenVPN was started
+ * before there was a result, so {@link TransportSelector} applies it at OpenVPN's remote prompts.
+ * The remote that connects is cached per BSSID by {@link TransportSelector}.
+ */
+public class RemoteSelector {
+
+    public static final String UDP = "udp";
+    public static final String TCP = "tcp";
+
+    static final int PROBE_TIMEOUT = 2000;
+    static final int TCP_STAGGER = 250;
+
+    private static final String PREFERRED_REMOTE_PREFIX = "preferred_remote_";
+    private static final String PROBED_REMOTES_PREFIX = "probed_remotes_";
+    private static final long PREFERRED_REMOTE_TTL = TimeUnit.DAYS.toMillis(1);
+    private static final SecureRandom sRandom = new SecureRandom();
+
+    public static class Remote {
+
+        private final String mProto;
+        private final int mPort;
+        private long mRtt = -1;
+
+        public Remote(String proto, int port) {
+            mProto = proto;
+            mPort = port;
+        }
+
+        public String getProto() {
+            return mProto;
+        }
+
+        public int getPort() {
+            return mPort;
+        }
+
+        /**
+         * @return the measured round trip time in milliseconds, or -1 if the remote didn't answer
+         */
+        public long getRtt() {
+            return mRtt;
+        }
+
+        public boolean isReachable() {
+            return mRtt >= 0;
+        }
+
+        @Override
+        public String toString() {
+            return mProto + ":" + mPort;
+        }
+    }
+
+    /**
+     * @return {@code remotes} ordered by the cached preference for {@code bssid}, or by the cached
+     *         result of probing it, or unchanged. Never probes.
+     */
+    public static List<Remote> order(Context context, List<Remote> remotes, @Nullable String bssid) {
+        String preferred = getPreferredRemote(context, bssid);
+        if (preferred != null) {
+            Logger.debug("Using cached preferred remote " + preferred + " for " + bssid);
+            return moveToFront(remotes, preferred);
+        }
+
+        List<String> probed = getProbedRemotes(context, bssid);
+        if (probed == null) {
+            return remotes;
+        }
+
+        List<Remote> ordered = new ArrayList<>(remotes);
+        for (int i = probed.size() - 1; i >= 0; i--) {
+            ordered = moveToFront(ordered, probed.get(i));
+        }
+
+        return ordered;
+    }
+
+    /**
+     * Probes {@code remotes} over {@code network} in the background and caches the result for
+     * {@code bssid}, unless there is a fresh preference or probe result for it already.
+     */
+    public static void probeInBackground(final Context context, final String host,
+                                         final List<Remote> remotes, @Nullable final String bssid,
+                                         @Nullable final Network network) {
+        if (bssid == null || network == null || getPreferredRemote(context, bssid) != null ||
+                getProbedRemotes(context, bssid) != null) {
+            return;
+        }
+
+        JobRunner.submit(new JobRunner.Request("remote_probe", new Job() {
+            @Override
+            public void run(CancellationToken token) {
+                List<Remote> ordered = probe(host, remotes, network);
+                if (!token.isCancelled()) {
+                    setProbedRemotes(context, bssid, ordered);
+                }
+            }
+        }).singleFlight("remote_probe:" + bssid));
+    }
+
+    /**
+     * Probes every remote in parallel and returns them sorted by the time from the start of the
+     * race until they answered, with unreachable remotes last in their original order.
+     */
+    @WorkerThread
+    public static List<Remote> probe(String host, List<Remote> remotes, @Nullable final Network network) {
+        final InetAddress address;
+        try {
+            address = InetAddress.getByName(host);
+        } catch (IOException e) {
+            Logger.warn("Unable to resolve " + host + " for probing. " + e.getMessage());
+            return remotes;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(remotes.size());
+        List<Callable<Void>> probes = new ArrayList<>();
+        for (final Remote remote : remotes) {
+            probes.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    long delay = 0;
+                    if (TCP.equals(remote.getProto())) {
+                        delay = TCP_STAGGER;
+                        SystemClock.sleep(delay);
+                    }
+
+                    long rtt = probe(address, remote, network);
+                    remote.mRtt = rtt < 0 ? -1 : rtt + delay;
+                    return null;
+                }
+            });
+        }
+
+        try {
+            executor.invokeAll(probes, PROBE_TIMEOUT + 500, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdownNow();
+        }
+
+        List<Remote> ordered = new ArrayList<>(remotes);
+        Collections.sort(ordered, new Comparator<Remote>() {
+            @Override
+            public int compare(Remote first, Remote second) {
+                if (first.isReachable() != second.isReachable()) {
+                    return first.isReachable() ? -1 : 1;
+                }
+
+                return first.isReachable() ? Long.compare(first.mRtt, second.mRtt) : 0;
+            }
+        });
+
+        StringBuilder results = new StringBuilder();
+        for (Remote remote : ordered) {
+            results.append(remote).append("=").append(remote.isReachable() ? remote.mRtt + "ms " : "unreachable ");
+        }
+        Logger.info("Remote probe results: " + results.toString().trim());
+
+        return ordered;
+    }
+
+    private static long probe(InetAddress address, Remote remote, @Nullable Network network) {
+        long start = SystemClock.elapsedRealtime();
+        try {
+            if (UDP.equals(remote.getProto())) {
+                probeUdp(address, remote.getPort(), network);
+            } else {
+                probeTcp(address, remote.getPort(), network);
+            }
+
+            return SystemClock.elapsedRealtime() - start;
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Sends an OpenVPN P_CONTROL_HARD_RESET_CLIENT_V2 packet, which the server answers with a
+     * P_CONTROL_HARD_RESET_SERVER_V2 packet.
+     */
+    private static void probeUdp(InetAddress address, int port, @Nullable Network network) throws IOException {
+        byte[] packet = new byte[14];
+        packet[0] = (byte) (7 << 3);
+        byte[] sessionId = new byte[8];
+        sRandom.nextBytes(sessionId);
+        System.arraycopy(sessionId, 0, packet, 1, sessionId.length);
+
+        DatagramSocket socket = new DatagramSocket();
+        try {
+            if (network != null) {
+                network.bindSocket(socket);
+            }
+
+            socket.setSoTimeout(PROBE_TIMEOUT);
+            socket.send(new DatagramPacket(packet, packet.length, address, port));
+            socket.receive(new DatagramPacket(new byte[1500], 1500));
+        } finally {
+            socket.close();
+        }
+    }
+
+    private static void probeTcp(InetAddress address, int port, @Nullable Network network) throws IOException {
+        Socket socket = new Socket();
+        try {
+            if (network != null) {
+                network.bindSocket(socket);
+            }
+
+            socket.connect(new InetSocketAddress(address, port), PROBE_TIMEOUT);
+        } finally {
+            socket.close();
+        }
+    }
+
+    private static List<Remote> moveToFront(List<Remote> remotes, String preferred) {
+        List<Remote> ordered = new ArrayList<>(remotes);
+        for (int i = 0; i < ordered.size(); i++) {
+            if (ordered.get(i).toString().equals(preferred)) {
+                ordered.add(0, ordered.remove(i));
+                break;
+            }
+        }
+
+        return ordered;
+    }
+
+    @Nullable
+    static String getPreferredRemote(Context context, @Nullable String bssid) {
+        if (bssid == null) {
+            return null;
+        }
+
+        String value = Settings.getPrefs(context).getString(PREFERRED_REMOTE_PREFIX + bssid, null);
+        if (value == null) {
+            return null;
+        }
+
+        int separator = value.lastIndexOf('@');
+        try {
+            if (System.currentTimeMillis() - Long.parseLong(value.substring(separator + 1)) < PREFERRED_REMOTE_TTL) {
+                return value.substring(0, separator);
+            }
+        } catch (NumberFormatException | StringIndexOutOfBoundsException ignored) {}
+
+        return null;
+    }
+
+    /**
+     * @return the remotes that answered the last probe of {@code bssid} in {@code proto:port} form,
+     *         fastest first, or null if it hasn't been probed recently
+     */
+    @Nullable
+    static List<String> getProbedRemotes(Context context, @Nullable String bssid) {
+        if (bssid == null) {
+            return null;
+        }
+
+        String value = Settings.getPrefs(context).getString(PROBED_REMOTES_PREFIX + bssid, null);
+        if (value == null) {
+            return null;
+        }
+
+        int separator = value.lastIndexOf('@');
+        try {
+            if (System.currentTimeMillis() - Long.parseLong(value.substring(separator + 1)) < PREFERRED_REMOTE_TTL) {
+                return Arrays.asList(TextUtils.split(value.substring(0, separator), ","));
+            }
+        } catch (NumberFormatException | StringIndexOutOfBoundsException ignored) {}
+
+        return null;
+    }
+
+    private static void setProbedRemotes(Context context, String bssid, List<Remote> ordered) {
+        List<String> reachable = new ArrayList<>();
+        for (Remote remote : ordered) {
+            if (remote.isReachable()) {
+                reachable.add(remote.toString());
+            }
+        }
+
+        if (reachable.isEmpty()) {
+            // most likely the network isn't passing traffic yet, probe again next time
+            return;
+        }
+
+        Settings.getPrefs(context).edit()
+                .putString(PROBED_REMOTES_PREFIX + bssid,
+                        TextUtils.join(",", reachable) + "@" + System.currentTimeMillis())
+                .apply();
+    }
+
+    /**
+     * @param remote the remote in {@code proto:port} form, or null to clear the preference
+     */
+    static void setPreferredRemote(Context context, @Nullable String bssid, @Nullable String remote) {
+        if (bssid == null) {
+            return;
+        }
+
+        if (remote == null) {
+            Settings.getPrefs(context).edit()
+                    .remove(PREFERRED_REMOTE_PREFIX + bssid)
+                    .apply();
+        } else {
+            Settings.getPrefs(context).edit()
+                    .putString(PREFERRED_REMOTE_PREFIX + bssid, remote + "@" + System.currentTimeMillis())
+                    .apply();
+        }
+    }
+}
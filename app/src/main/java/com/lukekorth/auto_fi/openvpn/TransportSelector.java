@@ -0,0 +1,149 @@
+package com.lukekorth.auto_fi.openvpn;
+
+import android.content.Context;
+import android.support.annotation.Nullable;
+
+import com.lukekorth.auto_fi.utilities.Logger;
+import com.lukekorth.auto_fi.utilities.WifiHelper;
+
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Answers OpenVPN's {@code >REMOTE} prompts so the transport used for a network stays consistent
+ * with what has worked there before. The remote that reaches CONNECTED is remembered per BSSID
+ * and renewed on every connection, UDP remotes are skipped on networks where UDP is known not to
+ * work, and a UDP connection that hits {@code ping-restart} falls back to TCP for the rest of the
+ * connection. Without a remembered
+ * remote, the result of probing the network is applied: the first prompt is redirected to the
+ * fastest remote and remotes that didn't answer are skipped.
+ */
+class TransportSelector {
+
+    static final String TCP_FALLBACK = RemoteSelector.TCP + ":443";
+
+    private final Context mContext;
+    private final WifiHelper mWifiHelper;
+    private boolean mLoaded;
+    private String mBssid;
+    private String mPreferredRemote;
+    private String mCurrentRemote;
+    private boolean mSkipUdp;
+    private boolean mRedirected;
+
+    TransportSelector(Context context, WifiHelper wifiHelper) {
+        mContext = context;
+        mWifiHelper = wifiHelper;
+    }
+
+    /**
+     * @param argument Format of >REMOTE:{HOST},{PORT},{PROTO}
+     * @return the management command answering the prompt
+     */
+    String onRemote(String argument) {
+        load();
+
+        String[] args = argument.split(",");
+        if (args.length < 3) {
+            return "remote ACCEPT\n";
+        }
+
+        String proto = getProto(args[2]);
+        if (RemoteSelector.UDP.equals(proto) && mSkipUdp) {
+            Logger.debug("Skipping UDP remote " + args[1] + " on a network where UDP doesn't work");
+            return "remote SKIP\n";
+        }
+
+        String remote = proto + ":" + args[1];
+        // probed after OpenVPN was started, so read at every prompt rather than when loading
+        List<String> probed = mPreferredRemote == null ?
+                RemoteSelector.getProbedRemotes(mContext, mBssid) : null;
+        if (probed != null && !probed.isEmpty()) {
+            String fastest = probed.get(0);
+            if (!mRedirected && !fastest.equals(remote) && fastest.startsWith(proto + ":")) {
+                mRedirected = true;
+                mCurrentRemote = fastest;
+                Logger.debug("Redirecting remote " + remote + " to the fastest probed remote " + fastest);
+                return "remote MOD " + args[0] + " " + fastest.substring(proto.length() + 1) + "\n";
+            }
+
+            if (!probed.contains(remote)) {
+                Logger.debug("Skipping remote " + remote + ", it didn't answer the probe");
+                return "remote SKIP\n";
+            }
+        }
+
+        mRedirected = true;
+        mCurrentRemote = remote;
+        return "remote ACCEPT\n";
+    }
+
+    void onConnected() {
+        load();
+
+        if (mCurrentRemote == null) {
+            return;
+        }
+
+        // renewed on every connect so a network that is used regularly keeps its preference
+        if (!mCurrentRemote.equals(mPreferredRemote)) {
+            Logger.info("Remembering " + mCurrentRemote + " for " + mBssid);
+            mPreferredRemote = mCurrentRemote;
+        }
+        RemoteSelector.setPreferredRemote(mContext, mBssid, mCurrentRemote);
+    }
+
+    /**
+     * @param reason the reason OpenVPN gave for reconnecting, e.g. {@code ping-restart}
+     */
+    void onReconnecting(@Nullable String reason) {
+        load();
+
+        if (mCurrentRemote == null) {
+            return;
+        }
+
+        if (mCurrentRemote.startsWith(RemoteSelector.UDP) && reason != null &&
+                reason.startsWith("ping-restart")) {
+            Logger.info("UDP stalled on " + mBssid + ", falling back to TCP");
+            mSkipUdp = true;
+            mPreferredRemote = TCP_FALLBACK;
+            RemoteSelector.setPreferredRemote(mContext, mBssid, TCP_FALLBACK);
+        } else if (mSkipUdp && mCurrentRemote.startsWith(RemoteSelector.TCP)) {
+            Logger.info("TCP failed on " + mBssid + ", allowing UDP again");
+            mSkipUdp = false;
+            mPreferredRemote = null;
+            RemoteSelector.setPreferredRemote(mContext, mBssid, null);
+        }
+    }
+
+    /**
+     * @return whether an HTTP proxy can be used for {@code proto}, which is only possible for TCP
+     */
+    static boolean canUseProxy(String proto) {
+        return RemoteSelector.TCP.equals(getProto(proto));
+    }
+
+    /**
+     * OpenVPN reports the protocol as e.g. {@code UDP}, {@code udp4} or {@code TCP_CLIENT}.
+     */
+    static String getProto(String proto) {
+        return proto.toLowerCase(Locale.US).startsWith(RemoteSelector.TCP) ?
+                RemoteSelector.TCP : RemoteSelector.UDP;
+    }
+
+    /**
+     * The network is read at the first prompt rather than at construction since a pre-warmed
+     * OpenVPN is started before wifi has associated.
+     */
+    private void load() {
+        if (mLoaded) {
+            return;
+        }
+        mLoaded = true;
+
+        mBssid = mWifiHelper.getCurrentBssid();
+        mPreferredRemote = RemoteSelector.getPreferredRemote(mContext, mBssid);
+        mSkipUdp = mPreferredRemote != null && mPreferredRemote.startsWith(RemoteSelector.TCP);
+    }
+}
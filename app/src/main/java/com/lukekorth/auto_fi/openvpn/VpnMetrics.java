@@ -0,0 +1,62 @@
+package com.lukekorth.auto_fi.openvpn;
+
+import android.os.SystemClock;
+
+import com.lukekorth.auto_fi.utilities.Metrics;
+
+/**
+ * Feeds {@link Metrics} from the management interface. Must only be called from the management
+ * thread.
+ */
+class VpnMetrics {
+
+    static final String BYTES_IN_PER_SECOND = "vpn.bytes_in_per_second";
+    static final String BYTES_OUT_PER_SECOND = "vpn.bytes_out_per_second";
+    static final String RECONNECTS = "vpn.reconnects";
+    static final String PING_RESTARTS = "vpn.ping_restarts";
+    static final String TUN_OPEN_MILLIS = "vpn.tun_open_ms";
+    static final String STATE_MILLIS_PREFIX = "vpn.state_ms.";
+
+    private long mLastByteCountAt;
+    private long mLastBytesIn;
+    private long mLastBytesOut;
+    private String mState;
+    private long mStateEnteredAt;
+
+    void onByteCount(long totalBytesIn, long totalBytesOut) {
+        long now = SystemClock.elapsedRealtime();
+        if (mLastByteCountAt != 0 && now > mLastByteCountAt && totalBytesIn >= mLastBytesIn &&
+                totalBytesOut >= mLastBytesOut) {
+            long elapsed = now - mLastByteCountAt;
+            Metrics.setGauge(BYTES_IN_PER_SECOND, (totalBytesIn - mLastBytesIn) * 1000 / elapsed);
+            Metrics.setGauge(BYTES_OUT_PER_SECOND, (totalBytesOut - mLastBytesOut) * 1000 / elapsed);
+        }
+
+        mLastByteCountAt = now;
+        mLastBytesIn = totalBytesIn;
+        mLastBytesOut = totalBytesOut;
+    }
+
+    /**
+     * @param reason the reason OpenVPN gave for the state, e.g. {@code ping-restart}
+     */
+    void onState(String state, String reason) {
+        long now = SystemClock.elapsedRealtime();
+        if (mState != null) {
+            Metrics.histogram(STATE_MILLIS_PREFIX + mState).record(now - mStateEnteredAt);
+        }
+        mState = state;
+        mStateEnteredAt = now;
+
+        if ("RECONNECTING".equals(state)) {
+            Metrics.increment(RECONNECTS);
+            if (reason != null && reason.startsWith("ping-restart")) {
+                Metrics.increment(PING_RESTARTS);
+            }
+        }
+    }
+
+    void onTunOpened(long durationMillis) {
+        Metrics.histogram(TUN_OPEN_MILLIS).record(durationMillis);
+    }
+}
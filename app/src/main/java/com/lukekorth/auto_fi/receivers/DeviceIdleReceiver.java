@@ -6,6 +6,7 @@ import android.content.Intent;
 import android.os.PowerManager;
 
 import com.google.firebase.analytics.FirebaseAnalytics;
+import com.lukekorth.auto_fi.utilities.WifiEventBus;
 
 import static com.lukekorth.auto_fi.services.VpnService.DISCONNECT_VPN_INTENT_ACTION;
 
@@ -17,6 +18,16 @@ public class DeviceIdleReceiver extends BroadcastReceiver {
             return;
         }
 
+        final Context applicationContext = context.getApplicationContext();
+        WifiEventBus.getInstance().post("device_idle", goAsync(), new Runnable() {
+            @Override
+            public void run() {
+                onIdleModeChanged(applicationContext);
+            }
+        });
+    }
+
+    private void onIdleModeChanged(Context context) {
         PowerManager powerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
         if (powerManager.isDeviceIdleMode()) {
             context.sendBroadcast(new Intent(DISCONNECT_VPN_INTENT_ACTION));
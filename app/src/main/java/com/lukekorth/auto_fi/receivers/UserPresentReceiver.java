@@ -5,10 +5,7 @@ import android.content.Context;
 import android.content.Intent;
 
 import com.lukekorth.auto_fi.models.Settings;
-import com.lukekorth.auto_fi.utilities.Logger;
-import com.lukekorth.auto_fi.utilities.WifiHelper;
-
-import java.util.concurrent.TimeUnit;
+import com.lukekorth.auto_fi.utilities.ScanScheduler;
 
 public class UserPresentReceiver extends BroadcastReceiver {
 
@@ -22,13 +19,6 @@ public class UserPresentReceiver extends BroadcastReceiver {
             return;
         }
 
-        WifiHelper wifiHelper = new WifiHelper(context);
-        if (!wifiHelper.isConnected()) {
-            long lastScan = WifiScanReceiver.getLastScan(context);
-            if (System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(5) > lastScan) {
-                Logger.debug("Requesting wifi scan after unlock");
-                wifiHelper.getWifiManager().startScan();
-            }
-        }
+        ScanScheduler.getInstance(context).onHint("user_present");
     }
 }
@@ -5,69 +5,103 @@ import android.app.NotificationManager;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.net.NetworkInfo;
 import android.net.wifi.WifiConfiguration;
 import android.net.wifi.WifiManager;
 
 import com.lukekorth.auto_fi.MainActivity;
 import com.lukekorth.auto_fi.R;
+import com.lukekorth.auto_fi.jobs.CancellationToken;
+import com.lukekorth.auto_fi.jobs.ConnectivityCheckJob;
 import com.lukekorth.auto_fi.models.CaptivePortalPage;
 import com.lukekorth.auto_fi.models.Settings;
-import com.lukekorth.auto_fi.models.WifiNetwork;
-import com.lukekorth.auto_fi.services.CaptivePortalPageUploadService;
-import com.lukekorth.auto_fi.services.ConnectivityCheckIntentService;
+import com.lukekorth.auto_fi.models.WifiNetworkRepository;
+import com.lukekorth.auto_fi.openvpn.OpenVpnConfiguration;
+import com.lukekorth.auto_fi.services.DeferredJobService;
 import com.lukekorth.auto_fi.utilities.Logger;
+import com.lukekorth.auto_fi.utilities.Tracer;
 import com.lukekorth.auto_fi.utilities.VpnHelper;
+import com.lukekorth.auto_fi.utilities.WifiEventBus;
 import com.lukekorth.auto_fi.utilities.WifiHelper;
 
-import io.realm.Realm;
-
 public class WifiConnectionReceiver extends BroadcastReceiver {
 
     @Override
-    public void onReceive(Context context, Intent intent) {
+    public void onReceive(Context context, final Intent intent) {
         if (!"android.net.wifi.STATE_CHANGE".equals(intent.getAction())) {
             return;
         }
 
+        // the network callback may not have been delivered yet, so use the broadcast's state
+        NetworkInfo networkInfo = intent.getParcelableExtra(WifiManager.EXTRA_NETWORK_INFO);
+        if (networkInfo == null || !networkInfo.isConnected()) {
+            return;
+        }
+
+        final Context applicationContext = context.getApplicationContext();
+        final String bssid = intent.getStringExtra(WifiManager.EXTRA_BSSID);
+        WifiEventBus.getInstance().post("wifi_connected:" + bssid, goAsync(), new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    onConnected(applicationContext, intent, bssid);
+                } finally {
+                    WifiNetworkRepository.flush();
+                }
+            }
+        });
+    }
+
+    private void onConnected(Context context, Intent intent, String bssid) {
+        if (CaptivePortalPage.hasStoredPages()) {
+            DeferredJobService.scheduleCaptivePortalPageUpload(context);
+        }
+
         WifiHelper wifiHelper = new WifiHelper(context);
-        if (wifiHelper.isConnected()) {
-            if (CaptivePortalPage.hasStoredPages()) {
-                context.startService(new Intent(context, CaptivePortalPageUploadService.class));
+        WifiConfiguration configuration =
+                wifiHelper.getNetworkConfiguration(intent.getParcelableExtra(WifiManager.EXTRA_WIFI_INFO));
+        if (!wifiHelper.isUnsecured(configuration)) {
+            return;
+        }
+
+        setConnectionTimestamp(configuration);
+
+        if (Settings.autoConnectToVpn(context) && !VpnHelper.isVpnEnabled(context)) {
+            Tracer.finish(context, Tracer.getActiveTraceId(), "vpn_disabled");
+            displayVpnNotEnabledNotification(context);
+
+            if (WifiNetworkRepository.isAutoconnected(wifiHelper.getCurrentNetwork())) {
+                wifiHelper.disconnectFromCurrentNetwork();
             }
+        } else if (!ConnectivityCheckJob.isRunning(bssid)) {
+            Logger.info("Connected to unsecured wifi network " + wifiHelper.getCurrentNetworkName() +
+                    ", checking connectivity");
 
-            WifiConfiguration configuration =
-                    wifiHelper.getNetworkConfiguration(intent.getParcelableExtra(WifiManager.EXTRA_WIFI_INFO));
-            if (wifiHelper.isUnsecured(configuration)) {
-                setConnectionTimestamp(configuration);
-
-                if (Settings.autoConnectToVpn(context) && !VpnHelper.isVpnEnabled(context)) {
-                    displayVpnNotEnabledNotification(context);
-
-                    if (WifiNetwork.isAutoconnectedNetwork(wifiHelper.getCurrentNetwork())) {
-                        wifiHelper.disconnectFromCurrentNetwork();
-                    }
-                } else if (!ConnectivityCheckIntentService.sIsRunning) {
-                    Logger.info("Connected to unsecured wifi network " + wifiHelper.getCurrentNetworkName() +
-                            ", checking connectivity");
-                    context.startService(new Intent(context, ConnectivityCheckIntentService.class));
-                } else {
-                    Logger.info("ConnectivityCheckIntentService is already running");
-                }
+            if (Settings.autoConnectToVpn(context) && OpenVpnConfiguration.isSetup(context)) {
+                OpenVpnConfiguration.probeRemotes(context);
+            }
+
+            String traceId = Tracer.getActiveTraceId();
+            if (traceId == null) {
+                traceId = Tracer.start(context, "connectivity_check");
+            } else {
+                Tracer.mark(traceId, "connectivity_check");
             }
+
+            // keep the broadcast alive, and with it the process, until the check has finished
+            // without holding on to a bus worker while it runs
+            CancellationToken token = ConnectivityCheckJob.submit(context, bssid, traceId);
+            if (token != null) {
+                token.addFinishedListener(WifiEventBus.holdPendingResults());
+            }
+        } else {
+            Logger.info("Connectivity check for " + bssid + " is already running");
         }
     }
 
     private void setConnectionTimestamp(WifiConfiguration configuration) {
         if (configuration != null) {
-            Realm realm = Realm.getDefaultInstance();
-
-            WifiNetwork network = WifiNetwork.findOrCreate(realm, configuration.SSID);
-
-            realm.beginTransaction();
-            network.setConnectedTimestamp(System.currentTimeMillis());
-            realm.commitTransaction();
-
-            realm.close();
+            WifiNetworkRepository.setConnectedTimestamp(configuration.SSID, System.currentTimeMillis());
         }
     }
 
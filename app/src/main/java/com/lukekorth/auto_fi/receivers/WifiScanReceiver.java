@@ -4,24 +4,39 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.net.wifi.ScanResult;
-import android.net.wifi.WifiConfiguration;
 import android.net.wifi.WifiManager;
 import android.text.TextUtils;
 
 import com.google.firebase.analytics.FirebaseAnalytics;
+import com.lukekorth.auto_fi.models.Database;
+import com.lukekorth.auto_fi.models.ExcludedNetworkFilter;
 import com.lukekorth.auto_fi.models.Settings;
+import com.lukekorth.auto_fi.models.TrafficBucket;
 import com.lukekorth.auto_fi.models.WifiNetwork;
+import com.lukekorth.auto_fi.models.WifiNetworkRepository;
+import com.lukekorth.auto_fi.network.CandidateScorer;
+import com.lukekorth.auto_fi.openvpn.OpenVpnConfiguration;
+import com.lukekorth.auto_fi.services.VpnService;
 import com.lukekorth.auto_fi.utilities.Logger;
+import com.lukekorth.auto_fi.utilities.ScanScheduler;
+import com.lukekorth.auto_fi.utilities.Tracer;
 import com.lukekorth.auto_fi.utilities.VpnHelper;
+import com.lukekorth.auto_fi.utilities.WifiEventBus;
 import com.lukekorth.auto_fi.utilities.WifiHelper;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import io.realm.Realm;
 
 public class WifiScanReceiver extends BroadcastReceiver {
 
-    private static final String LAST_SCAN_KEY = "last_scan";
+    private static final long THROUGHPUT_HISTORY = TimeUnit.DAYS.toMillis(30);
 
     @Override
     public void onReceive(Context context, Intent intent) {
@@ -33,86 +48,148 @@ public class WifiScanReceiver extends BroadcastReceiver {
             return;
         }
 
-        Settings.getPrefs(context).edit()
-                .putLong(LAST_SCAN_KEY, System.currentTimeMillis())
-                .apply();
+        ScanScheduler.getInstance(context).onScanCompleted();
 
+        if (!intent.getBooleanExtra(WifiManager.EXTRA_RESULTS_UPDATED, false)) {
+            return;
+        }
+
+        // a burst of scans is handled once, with the latest results
+        final Context applicationContext = context.getApplicationContext();
+        WifiEventBus.getInstance().post("scan_results", goAsync(), new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    onScanResults(applicationContext);
+                } finally {
+                    // don't leave the autoconnected flag in the write window while connecting
+                    WifiNetworkRepository.flush();
+                }
+            }
+        });
+    }
+
+    private void onScanResults(Context context) {
         WifiHelper wifiHelper = new WifiHelper(context);
 
         if (VpnHelper.isVpnEnabled(context) && wifiHelper.getWifiManager().isWifiEnabled() &&
-                !wifiHelper.isConnected() && intent.getBooleanExtra(WifiManager.EXTRA_RESULTS_UPDATED, false)) {
+                !wifiHelper.isConnected()) {
             List<ScanResult> scanResults = wifiHelper.getWifiManager().getScanResults();
+            if (!ScanScheduler.getInstance(context).hasNewResults(scanResults)) {
+                return;
+            }
+
             if (!wifiHelper.isConnected() && scanResults.size() > 0) {
-                ScanResult selectedNetwork = null;
-                for (ScanResult scanResult : wifiHelper.getWifiManager().getScanResults()) {
-                    if (isNetworkUnsecured(scanResult) &&
-                            !WifiNetwork.isBlacklisted("\"" + scanResult.SSID + "\"") &&
-                            !WifiNetwork.shouldNeverUse("\"" + scanResult.SSID + "\"")) {
-                        if (selectedNetwork == null) {
-                            selectedNetwork = scanResult;
-                        } else if (WifiManager.compareSignalLevel(scanResult.level, selectedNetwork.level) > 0) {
-                            selectedNetwork = scanResult;
-                        }
+                List<CandidateScorer.Candidate> candidates = getCandidates(scanResults);
+                CandidateScorer.Candidate selectedNetwork = CandidateScorer.select(candidates);
+                if (selectedNetwork == null) {
+                    if (!candidates.isEmpty()) {
+                        Logger.debug("Avoiding networks with poor signal");
+                        FirebaseAnalytics.getInstance(context).logEvent("poor_wifi_signal", null);
                     }
+                    return;
                 }
 
-                if (selectedNetwork != null && !TextUtils.isEmpty(selectedNetwork.SSID.trim())) {
-                    Logger.debug("Found network " + selectedNetwork.SSID + " nearby");
+                Logger.debug("Found network " + selectedNetwork.getSSID() + " nearby with score " +
+                        CandidateScorer.score(selectedNetwork));
 
-                    if (WifiManager.calculateSignalLevel(selectedNetwork.level, 5) == 0) {
-                        Logger.debug("Avoiding network with signal level of 0");
-                        FirebaseAnalytics.getInstance(context).logEvent("poor_wifi_signal", null);
-                        return;
-                    }
+                String ssid = "\"" + selectedNetwork.getSSID() + "\"";
+                if (wifiHelper.getConfiguredNetwork(ssid) != null) {
+                    Logger.debug("Network " + selectedNetwork.getSSID() + " is already configured.");
+                    return;
+                }
 
-                    List<WifiConfiguration> wifiConfigurationList = wifiHelper.getWifiManager()
-                            .getConfiguredNetworks();
-                    if (wifiConfigurationList == null) {
-                        return;
-                    }
+                Logger.info("Automatically connecting to " + selectedNetwork.getSSID());
+                String traceId = Tracer.start(context, "associate");
 
-                    for (WifiConfiguration configuredNetwork : wifiConfigurationList) {
-                        if (configuredNetwork.SSID.equals(selectedNetwork.SSID)) {
-                            Logger.debug("Network " + selectedNetwork.SSID + " is already configured.");
-                            return;
-                        }
-                    }
+                WifiNetworkRepository.setAutoconnected(ssid);
 
-                    String ssid = "\"" + selectedNetwork.SSID + "\"";
-                    if (WifiNetwork.isBlacklisted(ssid)) {
-                        Logger.info(selectedNetwork.SSID + " is blacklisted");
-                    } else if (WifiNetwork.shouldNeverUse(ssid)) {
-                        Logger.info(selectedNetwork.SSID + " should never be used");
-                    } else {
-                        Logger.info("Automatically connecting to " + selectedNetwork.SSID);
-
-                        Realm realm = Realm.getDefaultInstance();
-                        WifiNetwork network = WifiNetwork.findOrCreate(realm, ssid);
-                        realm.beginTransaction();
-                        network.setAutoconnected(true);
-                        realm.commitTransaction();
-
-                        WifiConfiguration configuration = new WifiConfiguration();
-                        configuration.SSID = ssid;
-                        configuration.allowedKeyManagement.set(WifiConfiguration.KeyMgmt.NONE);
-                        int networkId = wifiHelper.getWifiManager().addNetwork(configuration);
-                        wifiHelper.getWifiManager().enableNetwork(networkId, true);
-                        wifiHelper.getWifiManager().saveConfiguration();
-                        wifiHelper.getWifiManager().reconnect();
-
-                        FirebaseAnalytics.getInstance(context).logEvent("wifi_auto_connected", null);
-                    }
+                wifiHelper.connectToUnsecuredNetwork(ssid);
+
+                if (Settings.autoConnectToVpn(context) && OpenVpnConfiguration.isSetup(context)) {
+                    VpnService.prewarm(context, traceId);
+                }
+
+                FirebaseAnalytics.getInstance(context).logEvent("wifi_auto_connected", null);
+            }
+        }
+    }
+
+    /**
+     * @return the unsecured networks in {@code scanResults} that may be used, with their history
+     */
+    private List<CandidateScorer.Candidate> getCandidates(List<ScanResult> scanResults) {
+        final List<ScanResult> unsecured = new ArrayList<>();
+        final Set<String> possiblyExcluded = new HashSet<>();
+        ExcludedNetworkFilter excludedNetworkFilter = ExcludedNetworkFilter.getInstance();
+        for (ScanResult scanResult : scanResults) {
+            if (isNetworkUnsecured(scanResult) && !TextUtils.isEmpty(scanResult.SSID.trim())) {
+                unsecured.add(scanResult);
+
+                String ssid = "\"" + scanResult.SSID + "\"";
+                if (excludedNetworkFilter.mightBeExcluded(ssid)) {
+                    possiblyExcluded.add(ssid);
                 }
             }
         }
+
+        if (unsecured.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        return Database.getInstance().get(new Database.Query<List<CandidateScorer.Candidate>>() {
+            @Override
+            public List<CandidateScorer.Candidate> run(Realm realm) {
+                return getCandidates(realm, unsecured, possiblyExcluded);
+            }
+        });
+    }
+
+    private List<CandidateScorer.Candidate> getCandidates(Realm realm, List<ScanResult> unsecured,
+                                                          Set<String> possiblyExcluded) {
+        // history for all candidates is read with one query per table rather than one per network
+        String[] ssids = new String[unsecured.size()];
+        String[] quotedSsids = new String[unsecured.size()];
+        for (int i = 0; i < ssids.length; i++) {
+            ssids[i] = unsecured.get(i).SSID;
+            quotedSsids[i] = "\"" + ssids[i] + "\"";
+        }
+
+        Map<String, WifiNetwork> networks = new HashMap<>();
+        for (WifiNetwork network : realm.where(WifiNetwork.class).in("ssid", quotedSsids).findAll()) {
+            networks.put(network.getSSID(), network);
+        }
+        Map<String, TrafficBucket.Summary> traffic = TrafficBucket.getSummaries(realm, ssids,
+                System.currentTimeMillis() - THROUGHPUT_HISTORY);
+
+        List<CandidateScorer.Candidate> candidates = new ArrayList<>();
+        for (ScanResult scanResult : unsecured) {
+            String ssid = "\"" + scanResult.SSID + "\"";
+            WifiNetwork network = networks.get(ssid);
+            if (network != null && possiblyExcluded.contains(ssid) &&
+                    (network.isBlacklisted() || network.shouldNeverUse())) {
+                continue;
+            }
+
+            CandidateScorer.Candidate candidate = new CandidateScorer.Candidate(scanResult.SSID,
+                    scanResult.BSSID, scanResult.level, scanResult.frequency);
+            TrafficBucket.Summary summary = traffic.get(scanResult.SSID);
+            if (summary != null) {
+                candidate.throughput(summary.getBytesPerSecond());
+            }
+            if (network != null) {
+                candidate.probeLatency(network.getProbeLatency())
+                        .bypasses(network.getBypassAttempts(), network.getBypassSuccesses())
+                        .blacklistCount(network.getBlacklistCount());
+            }
+            candidates.add(candidate);
+        }
+
+        return candidates;
     }
 
     private boolean isNetworkUnsecured(ScanResult result) {
         return !(result.capabilities.contains("WEP") || result.capabilities.contains("PSK") ||
                 result.capabilities.contains("EAP"));
     }
-
-    public static long getLastScan(Context context) {
-        return Settings.getPrefs(context).getLong(LAST_SCAN_KEY, 0);
-    }
 }
@@ -1,13 +1,11 @@
 package com.lukekorth.auto_fi.services;
 
 import android.app.Service;
-import android.content.BroadcastReceiver;
-import android.content.Context;
 import android.content.Intent;
-import android.content.IntentFilter;
 import android.net.CaptivePortal;
 import android.net.ConnectivityManager;
-import android.net.wifi.WifiManager;
+import android.net.Network;
+import android.net.wifi.WifiConfiguration;
 import android.os.Build;
 import android.os.Handler;
 import android.os.IBinder;
@@ -15,29 +13,34 @@ import android.os.Looper;
 import android.support.annotation.Nullable;
 
 import com.lukekorth.auto_fi.interfaces.CaptivePortalWebViewListener;
+import com.lukekorth.auto_fi.models.WifiNetworkRepository;
 import com.lukekorth.auto_fi.utilities.Logger;
+import com.lukekorth.auto_fi.utilities.Tracer;
 import com.lukekorth.auto_fi.utilities.VpnHelper;
 import com.lukekorth.auto_fi.utilities.WifiHelper;
+import com.lukekorth.auto_fi.utilities.WifiStateTracker;
 import com.lukekorth.auto_fi.webview.CaptivePortalWebView;
 
-public class CaptivePortalBypassService extends Service implements CaptivePortalWebViewListener {
+public class CaptivePortalBypassService extends Service implements CaptivePortalWebViewListener,
+        WifiStateTracker.Listener {
 
     private WifiHelper mWifiHelper;
-    private BroadcastReceiver mDisconnectReceiver;
     private CaptivePortal mCaptivePortal;
     private CaptivePortalWebView mWebView;
+    private String mTraceId;
 
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
         Logger.info("Attempting to bypass captive portal");
 
         mWifiHelper = new WifiHelper(this);
+        mTraceId = Tracer.from(intent);
 
         if (intent != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
             mCaptivePortal = intent.getParcelableExtra(ConnectivityManager.EXTRA_CAPTIVE_PORTAL);
         }
 
-        setupWifiConnectionBroadcastReceiver();
+        mWifiHelper.getStateTracker().addListener(this);
         mWebView = new CaptivePortalWebView(this);
         mWebView.attemptBypass(getApplication(), this);
 
@@ -46,14 +49,21 @@ public class CaptivePortalBypassService extends Service implements CaptivePortal
 
     @Override
     public void onComplete(boolean successfullyBypassed) {
+        WifiConfiguration configuration = mWifiHelper.getCurrentNetwork();
+        if (configuration != null) {
+            WifiNetworkRepository.recordBypass(configuration.SSID, successfullyBypassed);
+        }
+
         if (successfullyBypassed) {
             Logger.debug("Captive portal successfully bypassed");
             if (mCaptivePortal != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
                 mCaptivePortal.reportCaptivePortalDismissed();
             }
-            VpnHelper.startVpn(this);
+            Tracer.mark(mTraceId, "vpn_start");
+            VpnHelper.startVpn(this, mTraceId);
         } else {
             Logger.debug("Captive portal could not be bypassed");
+            Tracer.finish(this, mTraceId, "bypass_failed");
             mWifiHelper.blacklistAndDisconnectFromCurrentNetwork();
         }
 
@@ -68,27 +78,17 @@ public class CaptivePortalBypassService extends Service implements CaptivePortal
             }
         });
 
-        try {
-            unregisterReceiver(mDisconnectReceiver);
-        } catch (IllegalArgumentException ignored) {}
+        mWifiHelper.getStateTracker().removeListener(this);
 
         mWebView.tearDown();
         stopSelf();
     }
 
-    private void setupWifiConnectionBroadcastReceiver() {
-        IntentFilter filter = new IntentFilter();
-        filter.addAction(WifiManager.WIFI_STATE_CHANGED_ACTION);
-        mDisconnectReceiver = new BroadcastReceiver() {
-            @Override
-            public void onReceive(Context context, Intent intent) {
-                if (intent.getAction().equals(WifiManager.WIFI_STATE_CHANGED_ACTION) &&
-                        !mWifiHelper.isConnected()) {
-                    stop();
-                }
-            }
-        };
-        registerReceiver(mDisconnectReceiver, filter);
+    @Override
+    public void onWifiNetworkChanged(@Nullable Network network) {
+        if (network == null) {
+            stop();
+        }
     }
 
     @Nullable
@@ -0,0 +1,159 @@
+package com.lukekorth.auto_fi.services;
+
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.util.SparseArray;
+
+import com.lukekorth.auto_fi.jobs.CancellationToken;
+import com.lukekorth.auto_fi.jobs.CaptivePortalPageUploadJob;
+import com.lukekorth.auto_fi.jobs.Job;
+import com.lukekorth.auto_fi.jobs.JobRunner;
+import com.lukekorth.auto_fi.jobs.TrafficCompactionJob;
+import com.lukekorth.auto_fi.utilities.ScanScheduler;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs deferrable jobs in the {@link JobRunner.Lane#DEFERRABLE} lane once the
+ * {@link JobScheduler} constraints they were scheduled with are met. Jobs are cancelled through
+ * their {@link CancellationToken} when the constraints stop being met and are retried later.
+ */
+public class DeferredJobService extends JobService {
+
+    private static final int CAPTIVE_PORTAL_PAGE_UPLOAD_JOB_ID = 200;
+    private static final int TRAFFIC_COMPACTION_JOB_ID = 201;
+    private static final int WIFI_SCAN_JOB_ID = 202;
+
+    private static final long TRAFFIC_COMPACTION_INTERVAL = TimeUnit.HOURS.toMillis(6);
+
+    private final SparseArray<CancellationToken> mTokens = new SparseArray<>();
+
+    /**
+     * Uploads stored captive portal pages once the device has a validated network.
+     */
+    public static void scheduleCaptivePortalPageUpload(Context context) {
+        getJobScheduler(context).schedule(new JobInfo.Builder(CAPTIVE_PORTAL_PAGE_UPLOAD_JOB_ID,
+                new ComponentName(context, DeferredJobService.class))
+                .setRequiredNetworkType(JobInfo.NETWORK_TYPE_ANY)
+                .build());
+    }
+
+    /**
+     * Periodically downsamples the traffic history while the device is idle.
+     */
+    public static void scheduleTrafficCompaction(Context context) {
+        JobScheduler jobScheduler = getJobScheduler(context);
+        if (jobScheduler.getPendingJob(TRAFFIC_COMPACTION_JOB_ID) != null) {
+            return;
+        }
+
+        jobScheduler.schedule(new JobInfo.Builder(TRAFFIC_COMPACTION_JOB_ID,
+                new ComponentName(context, DeferredJobService.class))
+                .setPeriodic(TRAFFIC_COMPACTION_INTERVAL)
+                .setRequiresDeviceIdle(true)
+                .build());
+    }
+
+    /**
+     * Requests a wifi scan through {@link ScanScheduler} after {@code delayMillis}, replacing any
+     * scan that is already scheduled.
+     */
+    public static void scheduleWifiScan(Context context, long delayMillis) {
+        getJobScheduler(context).schedule(new JobInfo.Builder(WIFI_SCAN_JOB_ID,
+                new ComponentName(context, DeferredJobService.class))
+                .setMinimumLatency(delayMillis)
+                .setOverrideDeadline(delayMillis + delayMillis / 2)
+                .build());
+    }
+
+    public static boolean isWifiScanScheduled(Context context) {
+        return getJobScheduler(context).getPendingJob(WIFI_SCAN_JOB_ID) != null;
+    }
+
+    public static void cancelWifiScan(Context context) {
+        getJobScheduler(context).cancel(WIFI_SCAN_JOB_ID);
+    }
+
+    @Override
+    public boolean onStartJob(final JobParameters params) {
+        final Job job;
+        final String type;
+        switch (params.getJobId()) {
+            case CAPTIVE_PORTAL_PAGE_UPLOAD_JOB_ID:
+                job = new CaptivePortalPageUploadJob();
+                type = "captive_portal_page_upload";
+                break;
+            case TRAFFIC_COMPACTION_JOB_ID:
+                job = new TrafficCompactionJob();
+                type = "traffic_compaction";
+                break;
+            case WIFI_SCAN_JOB_ID:
+                job = new Job() {
+                    @Override
+                    public void run(CancellationToken token) {
+                        ScanScheduler.getInstance(DeferredJobService.this).scan();
+                    }
+                };
+                type = "wifi_scan";
+                break;
+            default:
+                return false;
+        }
+
+        CancellationToken submitted = JobRunner.submit(new JobRunner.Request(type, new Job() {
+            @Override
+            public void run(CancellationToken token) throws Exception {
+                try {
+                    job.run(token);
+                } finally {
+                    onJobFinished(params, token);
+                }
+            }
+        }).lane(JobRunner.Lane.DEFERRABLE).singleFlight(type));
+
+        if (submitted == null) {
+            return false;
+        }
+
+        synchronized (mTokens) {
+            mTokens.put(params.getJobId(), submitted);
+        }
+
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        CancellationToken token;
+        synchronized (mTokens) {
+            token = mTokens.get(params.getJobId());
+            mTokens.remove(params.getJobId());
+        }
+
+        if (token != null) {
+            token.cancel();
+        }
+
+        return true;
+    }
+
+    private void onJobFinished(JobParameters params, CancellationToken token) {
+        synchronized (mTokens) {
+            if (mTokens.get(params.getJobId()) == token) {
+                mTokens.remove(params.getJobId());
+            }
+        }
+
+        if (!token.isCancelled()) {
+            jobFinished(params, false);
+        }
+    }
+
+    private static JobScheduler getJobScheduler(Context context) {
+        return (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+    }
+}
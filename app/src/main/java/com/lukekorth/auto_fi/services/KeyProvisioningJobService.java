@@ -0,0 +1,39 @@
+package com.lukekorth.auto_fi.services;
+
+import android.app.job.JobParameters;
+import android.app.job.JobService;
+
+import com.lukekorth.auto_fi.jobs.CancellationToken;
+import com.lukekorth.auto_fi.jobs.Job;
+import com.lukekorth.auto_fi.jobs.JobRunner;
+import com.lukekorth.auto_fi.openvpn.KeyPairPool;
+
+public class KeyProvisioningJobService extends JobService {
+
+    private volatile CancellationToken mToken;
+
+    @Override
+    public boolean onStartJob(final JobParameters params) {
+        mToken = JobRunner.submit(new JobRunner.Request("key_provisioning", new Job() {
+            @Override
+            public void run(CancellationToken token) {
+                KeyPairPool.fill(KeyProvisioningJobService.this);
+                if (!token.isCancelled()) {
+                    jobFinished(params, false);
+                }
+            }
+        }).lane(JobRunner.Lane.DEFERRABLE).singleFlight("key_provisioning"));
+
+        return mToken != null;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        CancellationToken token = mToken;
+        if (token != null) {
+            token.cancel();
+        }
+
+        return !KeyPairPool.hasKeyPair(this);
+    }
+}
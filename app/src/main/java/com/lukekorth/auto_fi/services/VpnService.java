@@ -6,32 +6,72 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.net.Network;
 import android.net.wifi.WifiManager;
 import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.annotation.MainThread;
+import android.support.annotation.Nullable;
 
 import com.google.firebase.analytics.FirebaseAnalytics;
 import com.lukekorth.auto_fi.MainActivity;
 import com.lukekorth.auto_fi.R;
 import com.lukekorth.auto_fi.interfaces.Vpn;
 import com.lukekorth.auto_fi.interfaces.VpnServiceInterface;
-import com.lukekorth.auto_fi.models.WifiNetwork;
+import com.lukekorth.auto_fi.models.Database;
+import com.lukekorth.auto_fi.models.WifiNetworkRepository;
 import com.lukekorth.auto_fi.openvpn.OpenVpn;
 import com.lukekorth.auto_fi.utilities.Logger;
+import com.lukekorth.auto_fi.utilities.Tracer;
 import com.lukekorth.auto_fi.utilities.WifiHelper;
+import com.lukekorth.auto_fi.utilities.WifiStateTracker;
 
-import io.realm.Realm;
+import java.util.concurrent.TimeUnit;
 
 public class VpnService extends android.net.VpnService implements VpnServiceInterface {
 
     public static final String DISCONNECT_VPN_INTENT_ACTION = "com.lukekorth.auto_fi.DISCONNECT_VPN";
+    public static final String PREPARE_VPN_INTENT_ACTION = "com.lukekorth.auto_fi.PREPARE_VPN";
     public static final String VPN_STATUS_NOTIFICATION_CHANNEL = "vpn_status_notification_channel";
 
     private static final int NOTIFICATION_ID = 1;
+    private static final long STANDBY_TIMEOUT = TimeUnit.MINUTES.toMillis(2);
 
     private Vpn mVpn;
     private WifiHelper mWifiHelper;
     private BroadcastReceiver mDisconnectReceiver;
+    private boolean mStandby;
+    private volatile boolean mStopped;
+    private volatile String mTraceId;
+    private Handler mHandler = new Handler(Looper.getMainLooper());
+
+    private final WifiStateTracker.Listener mWifiListener = new WifiStateTracker.Listener() {
+        @Override
+        public void onWifiNetworkChanged(@Nullable Network network) {
+            if (network == null && !mStandby && !mStopped) {
+                Logger.info("Wifi disconnected, stopping VPN");
+                stopVpn();
+            }
+        }
+    };
+
+    private final Runnable mStandbyTimeout = new Runnable() {
+        @Override
+        public void run() {
+            Logger.info("VPN warm standby was never released, stopping");
+            stopStandby();
+        }
+    };
+
+    /**
+     * Starts OpenVPN and leaves it waiting in the management hold state so the next
+     * {@link com.lukekorth.auto_fi.utilities.VpnHelper#startVpn(Context)} only has to release it.
+     */
+    public static void prewarm(Context context, @Nullable String traceId) {
+        context.startService(Tracer.attach(new Intent(context, VpnService.class), traceId)
+                .setAction(PREPARE_VPN_INTENT_ACTION));
+    }
 
     @Override
     @MainThread
@@ -42,14 +82,39 @@ public class VpnService extends android.net.VpnService implements VpnServiceInte
 
         mWifiHelper = new WifiHelper(this);
 
+        String traceId = Tracer.from(intent);
+        if (traceId != null) {
+            mTraceId = traceId;
+        }
+
+        if (intent != null && PREPARE_VPN_INTENT_ACTION.equals(intent.getAction())) {
+            return startStandby();
+        }
+
         if (!mWifiHelper.isConnected()) {
             Logger.warn("No wifi networked connected, stopping VPNService");
-            stopSelf();
+            if (mStandby) {
+                stopStandby();
+            } else {
+                stopSelf();
+            }
             return START_NOT_STICKY;
         }
 
         mWifiHelper.bindToCurrentNetwork();
 
+        if (mStandby) {
+            mStandby = false;
+            mHandler.removeCallbacks(mStandbyTimeout);
+            setNotificationMessage(R.string.state_connecting);
+            mVpn.releaseHold();
+
+            FirebaseAnalytics.getInstance(this).logEvent("vpn_started_from_standby", null);
+
+            return START_STICKY;
+        }
+
+        mStopped = false;
         registerDisconnectReceiver();
         setNotificationMessage(R.string.state_connecting);
 
@@ -61,11 +126,53 @@ public class VpnService extends android.net.VpnService implements VpnServiceInte
         return START_STICKY;
     }
 
+    private int startStandby() {
+        if (mVpn != null && !mStopped) {
+            return START_NOT_STICKY;
+        }
+
+        Logger.info("Starting VPN in warm standby");
+        mStandby = true;
+        mStopped = false;
+
+        registerDisconnectReceiver();
+        setNotificationMessage(R.string.state_nonetwork);
+
+        mVpn = new OpenVpn(this, this, true);
+        mVpn.start();
+        mHandler.postDelayed(mStandbyTimeout, STANDBY_TIMEOUT);
+
+        return START_NOT_STICKY;
+    }
+
+    /**
+     * Stops a VPN that was never released from standby. Unlike {@link #stopVpn()} this leaves the
+     * wifi network alone since the connectivity check or captive portal bypass may still be using
+     * it.
+     */
+    private void stopStandby() {
+        mStandby = false;
+        mStopped = true;
+        Tracer.finish(this, mTraceId, "standby_stopped");
+        mHandler.removeCallbacks(mStandbyTimeout);
+
+        mVpn.stop();
+        stopForeground(true);
+        unregisterDisconnectionReceiver();
+        stopSelf();
+    }
+
     @Override
     public WifiHelper getWifiHelper() {
         return mWifiHelper;
     }
 
+    @Nullable
+    @Override
+    public String getTraceId() {
+        return mTraceId;
+    }
+
     @Override
     public Builder getBuilder() {
         return new Builder();
@@ -73,27 +180,30 @@ public class VpnService extends android.net.VpnService implements VpnServiceInte
 
     @Override
     public void successfullyConnected() {
-        Realm realm = Realm.getDefaultInstance();
-
-        WifiNetwork network = WifiNetwork.find(realm, mWifiHelper.getCurrentNetworkName());
-        if (network != null) {
-            realm.beginTransaction();
-            network.setConnectedToVpn(true);
-            realm.commitTransaction();
-        }
-
-        realm.close();
+        WifiNetworkRepository.setConnectedToVpn(mWifiHelper.getCurrentNetworkName());
     }
 
     @Override
     public void shutdown() {
-        stopVpn();
+        if (mStopped) {
+            return;
+        }
+
+        if (mStandby) {
+            stopStandby();
+        } else {
+            stopVpn();
+        }
     }
 
     @Override
     public void onRevoke() {
         Logger.info("VPN permission revoked by OS, stopping");
-        stopVpn();
+        if (mStandby) {
+            stopStandby();
+        } else {
+            stopVpn();
+        }
     }
 
     @Override
@@ -130,18 +240,23 @@ public class VpnService extends android.net.VpnService implements VpnServiceInte
         mDisconnectReceiver = new BroadcastReceiver() {
             @Override
             public void onReceive(Context context, Intent intent) {
-                if (intent.getAction().equals(DISCONNECT_VPN_INTENT_ACTION)) {
-                    stopVpn();
-                } else if (intent.getAction().equals(WifiManager.WIFI_STATE_CHANGED_ACTION) &&
-                        !mWifiHelper.isConnected()) {
+                if (mStandby) {
+                    if (intent.getAction().equals(DISCONNECT_VPN_INTENT_ACTION) ||
+                            !mWifiHelper.getWifiManager().isWifiEnabled()) {
+                        stopStandby();
+                    }
+                } else if (intent.getAction().equals(DISCONNECT_VPN_INTENT_ACTION)) {
                     stopVpn();
                 }
             }
         };
         registerReceiver(mDisconnectReceiver, filter);
+        mWifiHelper.getStateTracker().addListener(mWifiListener);
     }
 
     private void stopVpn() {
+        mStopped = true;
+        Tracer.finish(this, mTraceId, "vpn_stopped");
         mVpn.stop();
         stopForeground(true);
 
@@ -149,14 +264,20 @@ public class VpnService extends android.net.VpnService implements VpnServiceInte
 
         mWifiHelper.unbindFromCurrentNetwork();
 
-        if (WifiNetwork.isAutoconnectedNetwork(mWifiHelper.getCurrentNetwork())) {
-            mWifiHelper.disconnectFromCurrentNetwork();
-        }
+        WifiNetworkRepository.isAutoconnected(mWifiHelper.getCurrentNetwork(), new Database.Callback<Boolean>() {
+            @Override
+            public void onResult(Boolean autoconnected) {
+                if (autoconnected) {
+                    mWifiHelper.disconnectFromCurrentNetwork();
+                }
+            }
+        });
 
         stopSelf();
     }
 
     private void unregisterDisconnectionReceiver() {
+        mWifiHelper.getStateTracker().removeListener(mWifiListener);
         try {
             unregisterReceiver(mDisconnectReceiver);
         } catch (IllegalArgumentException ignored) {}
@@ -0,0 +1,144 @@
+package com.lukekorth.auto_fi.utilities;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+
+import com.lukekorth.auto_fi.BuildConfig;
+import com.lukekorth.auto_fi.models.Settings;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+
+/**
+ * Extracts assets to the files directory once per app version. Each extraction is recorded in a
+ * manifest with the app version, size and SHA-256 of the extracted file so later calls are a
+ * single stat, and after an app update the asset is only rewritten if its contents changed.
+ */
+public class AssetExtractor {
+
+    private static final String MANIFEST_PREFIX = "asset_manifest_";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    @Nullable
+    @WorkerThread
+    public static synchronized File extract(Context context, String assetFile, boolean executable)
+            throws IOException {
+        SharedPreferences prefs = Settings.getPrefs(context);
+        File file = FileUtils.get(context, assetFile);
+        Manifest manifest = Manifest.parse(prefs.getString(MANIFEST_PREFIX + assetFile, null));
+
+        if (manifest != null && file.exists() && file.length() == manifest.length) {
+            if (manifest.versionCode == BuildConfig.VERSION_CODE) {
+                return file;
+            }
+
+            String assetHash = hashAsset(context, assetFile);
+            if (assetHash.equals(manifest.sha256)) {
+                Logger.debug(assetFile + " is unchanged since the last extraction");
+                saveManifest(prefs, assetFile, new Manifest(BuildConfig.VERSION_CODE, manifest.length, assetHash));
+                return file;
+            }
+        }
+
+        Logger.debug("Extracting " + assetFile);
+
+        File temporaryFile = new File(file.getParentFile(), assetFile + ".tmp");
+        MessageDigest digest = HashUtils.newSha256();
+        long length = 0;
+        boolean copied = false;
+        InputStream in = context.getAssets().open(assetFile);
+        try {
+            OutputStream out = new FileOutputStream(temporaryFile);
+            try {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                for (int count; (count = in.read(buffer)) != -1; ) {
+                    out.write(buffer, 0, count);
+                    digest.update(buffer, 0, count);
+                    length += count;
+                }
+            } finally {
+                out.close();
+            }
+            copied = true;
+        } finally {
+            in.close();
+            // don't leave a partial copy behind when the copy failed
+            if (!copied) {
+                temporaryFile.delete();
+            }
+        }
+
+        if ((executable && !temporaryFile.setExecutable(true)) || !temporaryFile.renameTo(file)) {
+            temporaryFile.delete();
+            return null;
+        }
+
+        saveManifest(prefs, assetFile, new Manifest(BuildConfig.VERSION_CODE, length,
+                HashUtils.toHex(digest.digest())));
+
+        return file;
+    }
+
+    private static String hashAsset(Context context, String assetFile) throws IOException {
+        MessageDigest digest = HashUtils.newSha256();
+        InputStream in = context.getAssets().open(assetFile);
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            for (int count; (count = in.read(buffer)) != -1; ) {
+                digest.update(buffer, 0, count);
+            }
+        } finally {
+            in.close();
+        }
+
+        return HashUtils.toHex(digest.digest());
+    }
+
+    private static void saveManifest(SharedPreferences prefs, String assetFile, Manifest manifest) {
+        prefs.edit()
+                .putString(MANIFEST_PREFIX + assetFile, manifest.toString())
+                .apply();
+    }
+
+    private static class Manifest {
+
+        final int versionCode;
+        final long length;
+        final String sha256;
+
+        Manifest(int versionCode, long length, String sha256) {
+            this.versionCode = versionCode;
+            this.length = length;
+            this.sha256 = sha256;
+        }
+
+        @Nullable
+        static Manifest parse(@Nullable String value) {
+            if (value == null) {
+                return null;
+            }
+
+            String[] parts = value.split(":");
+            if (parts.length != 3) {
+                return null;
+            }
+
+            try {
+                return new Manifest(Integer.parseInt(parts[0]), Long.parseLong(parts[1]), parts[2]);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return versionCode + ":" + length + ":" + sha256;
+        }
+    }
+}
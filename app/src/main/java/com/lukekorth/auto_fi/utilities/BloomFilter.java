@@ -0,0 +1,103 @@
+package com.lukekorth.auto_fi.utilities;
+
+/**
+ * Fixed size Bloom filter of strings. {@link #mightContain(String)} never returns false for a
+ * string that was added, and returns true for a string that wasn't with roughly the false positive
+ * rate the filter was sized for, as long as no more than its capacity has been added.
+ *
+ * Not thread safe, callers that share a filter should copy it with {@link #copy()} before adding
+ * to it and then publish the copy.
+ */
+public class BloomFilter {
+
+    private final long[] mBits;
+    private final int mBitCount;
+    private final int mHashCount;
+    private final int mCapacity;
+    private int mSize;
+
+    /**
+     * @param capacity the number of strings the filter is sized for
+     * @param falsePositiveRate the false positive rate at capacity, e.g. 0.01
+     */
+    public BloomFilter(int capacity, double falsePositiveRate) {
+        capacity = Math.max(capacity, 1);
+        int bits = (int) Math.ceil(-capacity * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        mBits = new long[(bits + 63) / 64];
+        mBitCount = mBits.length * 64;
+        mHashCount = Math.max(1, (int) Math.round((double) mBitCount / capacity * Math.log(2)));
+        mCapacity = capacity;
+    }
+
+    private BloomFilter(BloomFilter other) {
+        mBits = other.mBits.clone();
+        mBitCount = other.mBitCount;
+        mHashCount = other.mHashCount;
+        mCapacity = other.mCapacity;
+        mSize = other.mSize;
+    }
+
+    public BloomFilter copy() {
+        return new BloomFilter(this);
+    }
+
+    public void add(String value) {
+        long hash = hash(value);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < mHashCount; i++) {
+            int bit = ((h1 + i * h2) & Integer.MAX_VALUE) % mBitCount;
+            mBits[bit >>> 6] |= 1L << bit;
+        }
+
+        mSize++;
+    }
+
+    public boolean mightContain(String value) {
+        long hash = hash(value);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < mHashCount; i++) {
+            int bit = ((h1 + i * h2) & Integer.MAX_VALUE) % mBitCount;
+            if ((mBits[bit >>> 6] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * @return the number of strings added, counting duplicates
+     */
+    public int size() {
+        return mSize;
+    }
+
+    public boolean isFull() {
+        return mSize >= mCapacity;
+    }
+
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    /**
+     * 64 bit FNV-1a over the string's chars, finished with the MurmurHash3 mixer so both halves
+     * are usable as independent hashes.
+     */
+    private static long hash(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
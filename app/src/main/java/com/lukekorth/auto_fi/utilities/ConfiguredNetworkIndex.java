@@ -0,0 +1,53 @@
+package com.lukekorth.auto_fi.utilities;
+
+import android.net.wifi.WifiConfiguration;
+import android.support.annotation.Nullable;
+import android.util.SparseArray;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable snapshot of the configured wifi networks, indexed by network id and SSID.
+ */
+class ConfiguredNetworkIndex {
+
+    static final ConfiguredNetworkIndex EMPTY =
+            new ConfiguredNetworkIndex(Collections.<WifiConfiguration>emptyList());
+
+    private final List<WifiConfiguration> mNetworks;
+    private final SparseArray<WifiConfiguration> mById;
+    private final Map<String, WifiConfiguration> mBySsid;
+
+    ConfiguredNetworkIndex(List<WifiConfiguration> networks) {
+        mNetworks = Collections.unmodifiableList(networks);
+        mById = new SparseArray<>(networks.size());
+        mBySsid = new HashMap<>(networks.size());
+
+        for (WifiConfiguration network : networks) {
+            mById.put(network.networkId, network);
+            if (network.SSID != null) {
+                mBySsid.put(network.SSID, network);
+            }
+        }
+    }
+
+    List<WifiConfiguration> getNetworks() {
+        return mNetworks;
+    }
+
+    @Nullable
+    WifiConfiguration get(int networkId) {
+        return mById.get(networkId);
+    }
+
+    /**
+     * @param ssid the quoted SSID, as used in {@link WifiConfiguration#SSID}
+     */
+    @Nullable
+    WifiConfiguration get(String ssid) {
+        return mBySsid.get(ssid);
+    }
+}
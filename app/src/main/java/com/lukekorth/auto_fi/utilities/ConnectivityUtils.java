@@ -2,15 +2,14 @@ package com.lukekorth.auto_fi.utilities;
 
 import android.content.Context;
 import android.net.Network;
-import android.support.annotation.Nullable;
+import android.net.wifi.WifiConfiguration;
 import android.support.annotation.WorkerThread;
 
 import com.google.firebase.analytics.FirebaseAnalytics;
-import com.lukekorth.auto_fi.BuildConfig;
+import com.lukekorth.auto_fi.models.WifiNetworkRepository;
+import com.lukekorth.auto_fi.network.ControlPlaneClient;
 
 import java.io.IOException;
-import java.net.HttpURLConnection;
-import java.net.URL;
 
 import static java.net.HttpURLConnection.HTTP_MOVED_PERM;
 import static java.net.HttpURLConnection.HTTP_MOVED_TEMP;
@@ -18,7 +17,8 @@ import static java.net.HttpURLConnection.HTTP_OK;
 
 public class ConnectivityUtils {
 
-    public static final String CONNECTIVITY_CHECK_URL = "http://" + BuildConfig.SERVER_IP + "/connectivity-check/";
+    public static final String CONNECTIVITY_CHECK_PATH = "/connectivity-check/";
+    public static final String CONNECTIVITY_CHECK_URL = ControlPlaneClient.SERVER_URL + CONNECTIVITY_CHECK_PATH;
 
     public enum ConnectivityState {
         CONNECTED,
@@ -31,24 +31,25 @@ public class ConnectivityUtils {
         WifiHelper wifiHelper = new WifiHelper(context);
         FirebaseAnalytics analytics = FirebaseAnalytics.getInstance(context);
 
-        HttpURLConnection connection = null;
         try {
             Network network = wifiHelper.bindToCurrentNetwork();
 
-            connection = getConnection(network);
-            connection.setUseCaches(false);
-            connection.setConnectTimeout(30000);
-            connection.setReadTimeout(30000);
-            connection.setRequestMethod("GET");
+            ControlPlaneClient.Response response = ControlPlaneClient.getInstance()
+                    .execute(new ControlPlaneClient.Request(CONNECTIVITY_CHECK_PATH).network(network));
+            int responseCode = response.getCode();
 
-            int responseCode = connection.getResponseCode();
-
-            Logger.info("Received " + responseCode + " response code from " + wifiHelper.getCurrentNetworkName());
+            Logger.info("Received " + responseCode + " response code from " + wifiHelper.getCurrentNetworkName() +
+                    " in " + response.getDuration() + "ms");
             analytics.logEvent("network_response_code_" + responseCode, null);
+
+            WifiConfiguration configuration = wifiHelper.getCurrentNetwork();
+            if (configuration != null) {
+                WifiNetworkRepository.recordProbeLatency(configuration.SSID, response.getDuration());
+            }
             analytics.logEvent(wifiHelper.getCurrentNetworkName().replace(" ", "_"), null);
 
             if (responseCode == HTTP_OK) {
-                if (StreamUtils.readStream(connection.getInputStream()).contains("E1A304E5-E244-4846-B613-6290055A211D")) {
+                if (response.getBody().contains("E1A304E5-E244-4846-B613-6290055A211D")) {
                     Logger.info(wifiHelper.getCurrentNetworkName() + " has connectivity");
                     analytics.logEvent("connectivity_connected", null);
                     return ConnectivityState.CONNECTED;
@@ -64,10 +65,6 @@ public class ConnectivityUtils {
         } catch (IOException e) {
             Logger.info("Connectivity check failed. " + e.getMessage());
         } finally {
-            if (connection != null) {
-                connection.disconnect();
-            }
-
             wifiHelper.unbindFromCurrentNetwork();
         }
 
@@ -75,12 +72,4 @@ public class ConnectivityUtils {
         analytics.logEvent("connectivity_none", null);
         return ConnectivityState.NO_CONNECTIVITY;
     }
-
-    private static HttpURLConnection getConnection(@Nullable Network network) throws IOException {
-        if (network != null) {
-            return ((HttpURLConnection) network.openConnection(new URL(CONNECTIVITY_CHECK_URL)));
-        } else {
-            return (HttpURLConnection) new URL(CONNECTIVITY_CHECK_URL).openConnection();
-        }
-    }
 }
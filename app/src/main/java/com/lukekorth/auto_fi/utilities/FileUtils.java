@@ -48,13 +48,16 @@ public class FileUtils {
     public static File writeAssetFileToDisk(Context context, String assetFile, String destinationFilename,
                                             boolean executable) throws IOException {
         InputStream in = context.getAssets().open(assetFile);
-        byte[] buffer = new byte[in.available()];
-        in.read(buffer);
-        in.close();
-
         FileOutputStream fos = context.openFileOutput(destinationFilename, Context.MODE_PRIVATE);
-        fos.write(buffer);
-        fos.close();
+        try {
+            byte[] buffer = new byte[8192];
+            for (int count; (count = in.read(buffer)) != -1; ) {
+                fos.write(buffer, 0, count);
+            }
+        } finally {
+            in.close();
+            fos.close();
+        }
 
         File file = context.getFileStreamPath(destinationFilename);
         if (file.setExecutable(executable)) {
@@ -0,0 +1,80 @@
+package com.lukekorth.auto_fi.utilities;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process wide registry of runtime metrics. Counters, gauges and histograms are created on first
+ * use and are safe to update from any thread without locking.
+ */
+public class Metrics {
+
+    private static final ConcurrentHashMap<String, AtomicLong> sCounters = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, AtomicLong> sGauges = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, Histogram> sHistograms = new ConcurrentHashMap<>();
+
+    public static void increment(String name) {
+        add(name, 1);
+    }
+
+    public static void add(String name, long delta) {
+        get(sCounters, name).addAndGet(delta);
+    }
+
+    public static long getCount(String name) {
+        return get(sCounters, name).get();
+    }
+
+    public static void setGauge(String name, long value) {
+        get(sGauges, name).set(value);
+    }
+
+    public static Histogram histogram(String name) {
+        Histogram histogram = sHistograms.get(name);
+        if (histogram == null) {
+            sHistograms.putIfAbsent(name, new Histogram());
+            histogram = sHistograms.get(name);
+        }
+
+        return histogram;
+    }
+
+    public static void dump(PrintWriter writer) {
+        writer.println("Counters");
+        for (Map.Entry<String, AtomicLong> counter : new TreeMap<>(sCounters).entrySet()) {
+            writer.println("  " + counter.getKey() + ": " + counter.getValue().get());
+        }
+
+        writer.println("Gauges");
+        for (Map.Entry<String, AtomicLong> gauge : new TreeMap<>(sGauges).entrySet()) {
+            writer.println("  " + gauge.getKey() + ": " + gauge.getValue().get());
+        }
+
+        writer.println("Histograms");
+        for (Map.Entry<String, Histogram> histogram : new TreeMap<>(sHistograms).entrySet()) {
+            writer.println("  " + histogram.getKey() + ": " + histogram.getValue());
+        }
+
+        writer.flush();
+    }
+
+    public static String dump() {
+        StringWriter stringWriter = new StringWriter();
+        dump(new PrintWriter(stringWriter));
+        return stringWriter.toString();
+    }
+
+    private static AtomicLong get(ConcurrentHashMap<String, AtomicLong> metrics, String name) {
+        AtomicLong metric = metrics.get(name);
+        if (metric == null) {
+            metrics.putIfAbsent(name, new AtomicLong());
+            metric = metrics.get(name);
+        }
+
+        return metric;
+    }
+}
@@ -0,0 +1,304 @@
+package com.lukekorth.auto_fi.utilities;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.hardware.Sensor;
+import android.hardware.SensorManager;
+import android.hardware.TriggerEvent;
+import android.hardware.TriggerEventListener;
+import android.net.Network;
+import android.net.wifi.ScanResult;
+import android.os.SystemClock;
+import android.support.annotation.MainThread;
+import android.support.annotation.Nullable;
+import android.telephony.CellLocation;
+import android.telephony.PhoneStateListener;
+import android.telephony.TelephonyManager;
+import android.text.TextUtils;
+
+import com.lukekorth.auto_fi.models.Settings;
+import com.lukekorth.auto_fi.services.DeferredJobService;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Requests wifi scans while wifi is disconnected, within the platform's scan throttling budget of
+ * {@link #BUDGET_SCANS} scans per {@link #BUDGET_WINDOW}. Each scan that turns up no new access
+ * points doubles the interval to the next one, up to {@link #MAX_INTERVAL}. Significant motion,
+ * a cell tower change or unlocking the device suggest new access points may be in range, and reset
+ * the interval to {@link #MIN_INTERVAL}. The interval and the scans requested in the current
+ * budget window are kept in prefs, so a restarted process carries on where the last one stopped
+ * rather than scanning at the minimum interval again.
+ *
+ * Also remembers the set of BSSIDs that were last evaluated so {@link
+ * com.lukekorth.auto_fi.receivers.WifiScanReceiver} can skip results it has already seen.
+ */
+public class ScanScheduler implements WifiStateTracker.Listener {
+
+    static final long MIN_INTERVAL = TimeUnit.MINUTES.toMillis(2);
+    static final long MAX_INTERVAL = TimeUnit.MINUTES.toMillis(30);
+    static final int BUDGET_SCANS = 4;
+    static final long BUDGET_WINDOW = TimeUnit.MINUTES.toMillis(2);
+
+    private static final String LAST_SCAN_KEY = "last_scan";
+    private static final String SCAN_INTERVAL_KEY = "scan_interval";
+    private static final String SCAN_REQUESTS_KEY = "scan_requests";
+    private static final long EVALUATION_TTL = TimeUnit.MINUTES.toMillis(10);
+
+    private static ScanScheduler sInstance;
+
+    private final Context mContext;
+    private final WifiHelper mWifiHelper;
+    private final ArrayDeque<Long> mScanRequests = new ArrayDeque<>();
+    private long mInterval = MIN_INTERVAL;
+    private long mEvaluatedHash;
+    private long mEvaluatedAt;
+
+    public static synchronized ScanScheduler getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ScanScheduler(context.getApplicationContext());
+        }
+
+        return sInstance;
+    }
+
+    private ScanScheduler(Context context) {
+        mContext = context;
+        mWifiHelper = new WifiHelper(context);
+
+        SharedPreferences prefs = Settings.getPrefs(context);
+        mInterval = Math.max(MIN_INTERVAL, Math.min(prefs.getLong(SCAN_INTERVAL_KEY, MIN_INTERVAL), MAX_INTERVAL));
+        for (String scanRequest : TextUtils.split(prefs.getString(SCAN_REQUESTS_KEY, ""), ",")) {
+            try {
+                mScanRequests.addLast(Long.parseLong(scanRequest));
+            } catch (NumberFormatException e) {
+                Logger.warn("Ignoring stored scan request " + scanRequest);
+            }
+        }
+    }
+
+    /**
+     * Starts listening for motion, cell tower and wifi changes. Must be called on the main thread
+     * once per process.
+     */
+    @MainThread
+    public void start() {
+        mWifiHelper.getStateTracker().addListener(this);
+        listenForSignificantMotion();
+        listenForCellChanges();
+
+        // a scan scheduled by the previous process is already at the right interval
+        if (!shouldScan() || !DeferredJobService.isWifiScanScheduled(mContext)) {
+            scheduleNext();
+        }
+    }
+
+    public static long getLastScan(Context context) {
+        return Settings.getPrefs(context).getLong(LAST_SCAN_KEY, 0);
+    }
+
+    /**
+     * Called for every completed scan, whether or not it was requested by us.
+     */
+    public void onScanCompleted() {
+        Settings.getPrefs(mContext).edit()
+                .putLong(LAST_SCAN_KEY, System.currentTimeMillis())
+                .apply();
+    }
+
+    /**
+     * Compares the BSSIDs in {@code scanResults} with the set that was last evaluated and adapts
+     * the scan interval: it is reset when new access points appear and backs off otherwise.
+     *
+     * @return true if the results need to be evaluated
+     */
+    public synchronized boolean hasNewResults(List<ScanResult> scanResults) {
+        long hash = hashBssids(scanResults);
+        long now = SystemClock.elapsedRealtime();
+        boolean changed = hash != mEvaluatedHash || now - mEvaluatedAt > EVALUATION_TTL;
+
+        if (hash != mEvaluatedHash) {
+            setInterval(MIN_INTERVAL);
+        } else {
+            setInterval(Math.min(mInterval * 2, MAX_INTERVAL));
+        }
+
+        if (changed) {
+            mEvaluatedHash = hash;
+            mEvaluatedAt = now;
+        } else {
+            Logger.debug("Scan results unchanged, next scan in " +
+                    TimeUnit.MILLISECONDS.toSeconds(mInterval) + "s");
+            Metrics.increment("wifi.scan_results_skipped");
+        }
+
+        scheduleNext();
+        return changed;
+    }
+
+    /**
+     * Something suggests new access points may be in range, scan as soon as the budget allows.
+     */
+    public void onHint(String reason) {
+        if (!shouldScan()) {
+            return;
+        }
+
+        Logger.debug("Scan hint from " + reason);
+        Metrics.increment("wifi.scan_hints." + reason);
+        setInterval(MIN_INTERVAL);
+
+        long lastScanAge = System.currentTimeMillis() - getLastScan(mContext);
+        if (lastScanAge >= MIN_INTERVAL) {
+            scan();
+        } else {
+            DeferredJobService.scheduleWifiScan(mContext, MIN_INTERVAL - lastScanAge);
+        }
+    }
+
+    /**
+     * Requests a scan if wifi is disconnected and the scan budget allows it, and schedules the
+     * next one.
+     */
+    public void scan() {
+        if (!shouldScan()) {
+            return;
+        }
+
+        if (hasBudget()) {
+            Logger.debug("Requesting wifi scan");
+            if (mWifiHelper.getWifiManager().startScan()) {
+                Metrics.increment("wifi.scans_requested");
+            } else {
+                // throttled by the platform, most likely because we are in the background
+                Metrics.increment("wifi.scans_throttled");
+                setInterval(MAX_INTERVAL);
+            }
+        }
+
+        scheduleNext();
+    }
+
+    @Override
+    public void onWifiNetworkChanged(@Nullable Network network) {
+        synchronized (this) {
+            mEvaluatedHash = 0;
+        }
+
+        if (network == null) {
+            onHint("wifi_disconnected");
+        } else {
+            DeferredJobService.cancelWifiScan(mContext);
+        }
+    }
+
+    private boolean shouldScan() {
+        return Settings.autoConnectToWifi(mContext) && mWifiHelper.getWifiManager().isWifiEnabled() &&
+                !mWifiHelper.isConnected();
+    }
+
+    private synchronized void setInterval(long interval) {
+        if (interval != mInterval) {
+            mInterval = interval;
+            Settings.getPrefs(mContext).edit()
+                    .putLong(SCAN_INTERVAL_KEY, interval)
+                    .apply();
+        }
+    }
+
+    private synchronized boolean hasBudget() {
+        // wall clock time, so the window survives a restart of the device as well as the process
+        long now = System.currentTimeMillis();
+        while (!mScanRequests.isEmpty() &&
+                (now - mScanRequests.peekFirst() > BUDGET_WINDOW || mScanRequests.peekFirst() > now)) {
+            mScanRequests.removeFirst();
+        }
+
+        if (mScanRequests.size() >= BUDGET_SCANS) {
+            Logger.debug("Scan budget exhausted");
+            return false;
+        }
+
+        mScanRequests.addLast(now);
+        Settings.getPrefs(mContext).edit()
+                .putString(SCAN_REQUESTS_KEY, TextUtils.join(",", mScanRequests))
+                .apply();
+        return true;
+    }
+
+    private void scheduleNext() {
+        if (shouldScan()) {
+            long interval;
+            synchronized (this) {
+                interval = mInterval;
+            }
+            DeferredJobService.scheduleWifiScan(mContext, interval);
+        } else {
+            DeferredJobService.cancelWifiScan(mContext);
+        }
+    }
+
+    private void listenForSignificantMotion() {
+        final SensorManager sensorManager = (SensorManager) mContext.getSystemService(Context.SENSOR_SERVICE);
+        final Sensor sensor = sensorManager.getDefaultSensor(Sensor.TYPE_SIGNIFICANT_MOTION);
+        if (sensor == null) {
+            return;
+        }
+
+        sensorManager.requestTriggerSensor(new TriggerEventListener() {
+            @Override
+            public void onTrigger(TriggerEvent event) {
+                onHint("motion");
+
+                // trigger sensors disarm after firing
+                sensorManager.requestTriggerSensor(this, sensor);
+            }
+        }, sensor);
+    }
+
+    private void listenForCellChanges() {
+        TelephonyManager telephonyManager = (TelephonyManager) mContext.getSystemService(Context.TELEPHONY_SERVICE);
+        if (telephonyManager == null) {
+            return;
+        }
+
+        try {
+            telephonyManager.listen(new PhoneStateListener() {
+                private boolean mInitial = true;
+
+                @Override
+                public void onCellLocationChanged(CellLocation location) {
+                    // the current location is delivered as soon as the listener is registered
+                    if (mInitial) {
+                        mInitial = false;
+                    } else {
+                        onHint("cell_change");
+                    }
+                }
+            }, PhoneStateListener.LISTEN_CELL_LOCATION);
+        } catch (SecurityException e) {
+            Logger.warn("Unable to listen for cell changes. " + e.getMessage());
+        }
+    }
+
+    /**
+     * Order independent hash of the BSSIDs in {@code scanResults}.
+     */
+    static long hashBssids(List<ScanResult> scanResults) {
+        String[] bssids = new String[scanResults.size()];
+        for (int i = 0; i < bssids.length; i++) {
+            bssids[i] = scanResults.get(i).BSSID;
+        }
+        Arrays.sort(bssids);
+
+        long hash = 1125899906842597L;
+        for (String bssid : bssids) {
+            hash = 31 * hash + (bssid == null ? 0 : bssid.hashCode());
+        }
+
+        return hash;
+    }
+}
@@ -0,0 +1,90 @@
+package com.lukekorth.auto_fi.utilities;
+
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * 64 bit SimHash over the visible text of an html page. Pages that differ only in small details
+ * (timestamps, session ids, MAC addresses) produce fingerprints a few bits apart.
+ */
+public class SimHash {
+
+    public static final int NEAR_DUPLICATE_DISTANCE = 3;
+
+    private static final int SHINGLE_SIZE = 3;
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private static final Pattern SCRIPT_OR_STYLE = Pattern.compile("(?is)<(script|style)[^>]*>.*?</\\1\\s*>");
+    private static final Pattern TAG = Pattern.compile("(?s)<[^>]*>");
+    private static final Pattern ENTITY = Pattern.compile("&[#a-zA-Z0-9]+;");
+    private static final Pattern NON_WORD = Pattern.compile("[^\\p{L}]+");
+
+    public static long fingerprint(String html) {
+        String[] words = normalize(html);
+        if (words.length == 0) {
+            return 0;
+        }
+
+        int[] weights = new int[64];
+        int shingles = Math.max(1, words.length - SHINGLE_SIZE + 1);
+        for (int i = 0; i < shingles; i++) {
+            long hash = FNV_OFFSET_BASIS;
+            for (int j = i; j < Math.min(words.length, i + SHINGLE_SIZE); j++) {
+                hash = fnv1a(hash, words[j]);
+                hash = fnv1a(hash, " ");
+            }
+
+            for (int bit = 0; bit < 64; bit++) {
+                weights[bit] += ((hash >>> bit) & 1) == 1 ? 1 : -1;
+            }
+        }
+
+        long fingerprint = 0;
+        for (int bit = 0; bit < 64; bit++) {
+            if (weights[bit] > 0) {
+                fingerprint |= 1L << bit;
+            }
+        }
+
+        return fingerprint;
+    }
+
+    public static int distance(long first, long second) {
+        return Long.bitCount(first ^ second);
+    }
+
+    public static boolean isNearDuplicate(long first, long second) {
+        return distance(first, second) <= NEAR_DUPLICATE_DISTANCE;
+    }
+
+    /**
+     * Strips scripts, styles, markup, entities, digits and punctuation so only the words a user
+     * would read remain.
+     */
+    static String[] normalize(String html) {
+        if (html == null) {
+            return new String[0];
+        }
+
+        String text = SCRIPT_OR_STYLE.matcher(html).replaceAll(" ");
+        text = TAG.matcher(text).replaceAll(" ");
+        text = ENTITY.matcher(text).replaceAll(" ");
+        text = NON_WORD.matcher(text.toLowerCase(Locale.US)).replaceAll(" ").trim();
+
+        if (text.isEmpty()) {
+            return new String[0];
+        }
+
+        return text.split(" ");
+    }
+
+    private static long fnv1a(long hash, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= FNV_PRIME;
+        }
+
+        return hash;
+    }
+}
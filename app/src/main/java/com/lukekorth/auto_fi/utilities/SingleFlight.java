@@ -0,0 +1,31 @@
+package com.lukekorth.auto_fi.utilities;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Process wide guards that let only one operation per key run at a time, e.g. one connectivity
+ * check per BSSID.
+ */
+public class SingleFlight {
+
+    private static final Set<String> sInFlight =
+            Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    /**
+     * @return true if the caller now owns {@code key} and must {@link #release(String)} it, false
+     *         if an operation for {@code key} is already running
+     */
+    public static boolean tryAcquire(String key) {
+        return sInFlight.add(key);
+    }
+
+    public static void release(String key) {
+        sInFlight.remove(key);
+    }
+
+    public static boolean isRunning(String key) {
+        return sInFlight.contains(key);
+    }
+}
@@ -26,9 +26,7 @@ public class StreamUtils {
         InputStream in = null;
         try {
             in = context.getAssets().open(asset);
-            byte[] buffer = new byte[in.available()];
-            in.read(buffer);
-            return new String(buffer);
+            return readStream(in);
         } catch (IOException e) {
             throw new RuntimeException(e);
         } finally {
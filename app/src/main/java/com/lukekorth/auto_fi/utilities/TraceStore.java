@@ -0,0 +1,96 @@
+package com.lukekorth.auto_fi.utilities;
+
+import android.content.Context;
+import android.support.annotation.WorkerThread;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+/**
+ * Fixed size on-disk ring buffer of completed connection traces. Each trace is stored as JSON in
+ * one of {@link #SLOTS} slots of {@link #SLOT_SIZE} bytes, overwriting the oldest trace once the
+ * buffer is full, so the file never grows past 256KB.
+ */
+public class TraceStore {
+
+    static final int SLOTS = 128;
+    static final int SLOT_SIZE = 2048;
+
+    private static final String TRACES_FILE = "connection_traces";
+    private static final int HEADER_SIZE = 8;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final Object sLock = new Object();
+
+    @WorkerThread
+    public static void append(Context context, String trace) throws IOException {
+        byte[] bytes = trace.getBytes(UTF_8);
+        if (bytes.length > SLOT_SIZE - 2) {
+            Logger.warn("Dropping trace of " + bytes.length + " bytes, larger than a trace slot");
+            return;
+        }
+
+        synchronized (sLock) {
+            RandomAccessFile file = open(context);
+            try {
+                int next = file.readInt();
+                int count = file.readInt();
+
+                file.seek(HEADER_SIZE + (long) next * SLOT_SIZE);
+                file.writeShort(bytes.length);
+                file.write(bytes);
+
+                file.seek(0);
+                file.writeInt((next + 1) % SLOTS);
+                file.writeInt(Math.min(SLOTS, count + 1));
+            } finally {
+                file.close();
+            }
+        }
+    }
+
+    /**
+     * Writes the stored traces as a JSON array, oldest first.
+     */
+    @WorkerThread
+    public static void export(Context context, Writer writer) throws IOException {
+        writer.write("[");
+
+        synchronized (sLock) {
+            RandomAccessFile file = open(context);
+            try {
+                int next = file.readInt();
+                int count = file.readInt();
+                int first = (next - count + SLOTS) % SLOTS;
+
+                for (int i = 0; i < count; i++) {
+                    file.seek(HEADER_SIZE + (long) ((first + i) % SLOTS) * SLOT_SIZE);
+                    byte[] bytes = new byte[file.readUnsignedShort()];
+                    file.readFully(bytes);
+
+                    writer.write(i == 0 ? "\n" : ",\n");
+                    writer.write(new String(bytes, UTF_8));
+                }
+            } finally {
+                file.close();
+            }
+        }
+
+        writer.write("\n]\n");
+        writer.flush();
+    }
+
+    private static RandomAccessFile open(Context context) throws IOException {
+        File traces = new File(context.getFilesDir(), TRACES_FILE);
+        RandomAccessFile file = new RandomAccessFile(traces, "rw");
+        if (file.length() < HEADER_SIZE) {
+            file.setLength(HEADER_SIZE);
+        }
+
+        file.seek(0);
+        return file;
+    }
+}
@@ -0,0 +1,197 @@
+package com.lukekorth.auto_fi.utilities;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.support.annotation.Nullable;
+
+import com.google.firebase.analytics.FirebaseAnalytics;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times each stage of a connection attempt, from associating with a network to OpenVPN reporting
+ * CONNECTED. A trace is identified by an attempt ID that is passed between receivers and services
+ * with {@link #attach(Intent, String)} and {@link #from(Intent)}. Each trace is a sequence of
+ * spans, where {@link #mark(String, String)} ends the current span and starts the next one.
+ * Completed traces are written to the {@link TraceStore} and reported to analytics.
+ *
+ * Every method accepts a null ID and does nothing with it, so code paths that are not part of an
+ * attempt don't need to check.
+ */
+public class Tracer {
+
+    public static final String EXTRA_TRACE_ID = "com.lukekorth.auto_fi.TRACE_ID";
+
+    private static final long TRACE_TIMEOUT = TimeUnit.MINUTES.toMillis(5);
+
+    private static final ConcurrentHashMap<String, Trace> sTraces = new ConcurrentHashMap<>();
+    private static final ExecutorService sWriter = Executors.newSingleThreadExecutor();
+    private static volatile String sActiveTraceId;
+
+    private static class Span {
+
+        private final String mName;
+        private final long mStart;
+        private long mDuration = -1;
+
+        private Span(String name, long start) {
+            mName = name;
+            mStart = start;
+        }
+    }
+
+    private static class Trace {
+
+        private final String mId = UUID.randomUUID().toString().substring(0, 8);
+        private final long mStartedAt = System.currentTimeMillis();
+        private final long mStartElapsed = SystemClock.elapsedRealtime();
+        private final List<Span> mSpans = new ArrayList<>();
+
+        private synchronized void mark(String name) {
+            long now = SystemClock.elapsedRealtime() - mStartElapsed;
+            endSpan(now);
+            mSpans.add(new Span(name, now));
+        }
+
+        private synchronized long finish() {
+            long now = SystemClock.elapsedRealtime() - mStartElapsed;
+            endSpan(now);
+            return now;
+        }
+
+        private void endSpan(long now) {
+            if (!mSpans.isEmpty()) {
+                Span span = mSpans.get(mSpans.size() - 1);
+                if (span.mDuration < 0) {
+                    span.mDuration = now - span.mStart;
+                }
+            }
+        }
+
+        private boolean isExpired() {
+            return SystemClock.elapsedRealtime() - mStartElapsed > TRACE_TIMEOUT;
+        }
+    }
+
+    /**
+     * Starts a new connection attempt, abandoning the previous one if it never finished.
+     *
+     * @param stage the first stage of the attempt
+     * @return the attempt ID
+     */
+    public static String start(Context context, String stage) {
+        String previousId = sActiveTraceId;
+        if (previousId != null) {
+            finish(context, previousId, "abandoned");
+        }
+
+        Trace trace = new Trace();
+        trace.mark(stage);
+        sTraces.put(trace.mId, trace);
+        sActiveTraceId = trace.mId;
+
+        Logger.debug("Started connection trace " + trace.mId + " at " + stage);
+        return trace.mId;
+    }
+
+    /**
+     * @return the ID of the attempt in progress, for stages started by system broadcasts that
+     *         can't carry it in their intent
+     */
+    @Nullable
+    public static String getActiveTraceId() {
+        String traceId = sActiveTraceId;
+        Trace trace = traceId == null ? null : sTraces.get(traceId);
+        if (trace == null || trace.isExpired()) {
+            return null;
+        }
+
+        return traceId;
+    }
+
+    public static void mark(@Nullable String traceId, String stage) {
+        Trace trace = traceId == null ? null : sTraces.get(traceId);
+        if (trace != null) {
+            trace.mark(stage);
+        }
+    }
+
+    public static void finish(Context context, @Nullable String traceId, final String outcome) {
+        final Trace trace = traceId == null ? null : sTraces.remove(traceId);
+        if (trace == null) {
+            return;
+        }
+
+        if (traceId.equals(sActiveTraceId)) {
+            sActiveTraceId = null;
+        }
+
+        final long total = trace.finish();
+        Logger.info("Connection trace " + trace.mId + " finished as " + outcome + " in " + total + "ms");
+
+        final Context applicationContext = context.getApplicationContext();
+        sWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                record(applicationContext, trace, outcome, total);
+            }
+        });
+    }
+
+    public static Intent attach(Intent intent, @Nullable String traceId) {
+        if (traceId != null) {
+            intent.putExtra(EXTRA_TRACE_ID, traceId);
+        }
+
+        return intent;
+    }
+
+    @Nullable
+    public static String from(@Nullable Intent intent) {
+        return intent == null ? null : intent.getStringExtra(EXTRA_TRACE_ID);
+    }
+
+    private static void record(Context context, Trace trace, String outcome, long total) {
+        Bundle bundle = new Bundle();
+        bundle.putString("outcome", outcome);
+        bundle.putLong(FirebaseAnalytics.Param.VALUE, total);
+
+        try {
+            JSONArray spans = new JSONArray();
+            synchronized (trace) {
+                for (Span span : trace.mSpans) {
+                    spans.put(new JSONObject()
+                            .put("name", span.mName)
+                            .put("start_ms", span.mStart)
+                            .put("duration_ms", span.mDuration));
+                    bundle.putLong(span.mName, span.mDuration);
+                }
+            }
+
+            TraceStore.append(context, new JSONObject()
+                    .put("id", trace.mId)
+                    .put("started_at", trace.mStartedAt)
+                    .put("outcome", outcome)
+                    .put("total_ms", total)
+                    .put("spans", spans)
+                    .toString());
+        } catch (JSONException | IOException e) {
+            Logger.error(e);
+        }
+
+        FirebaseAnalytics.getInstance(context).logEvent("connection_trace", bundle);
+    }
+}
@@ -2,9 +2,10 @@ package com.lukekorth.auto_fi.utilities;
 
 import android.content.Context;
 import android.content.Intent;
+import android.support.annotation.Nullable;
 
+import com.lukekorth.auto_fi.jobs.OpenVpnConfigurationJob;
 import com.lukekorth.auto_fi.openvpn.OpenVpnConfiguration;
-import com.lukekorth.auto_fi.services.OpenVpnConfigurationIntentService;
 import com.lukekorth.auto_fi.services.VpnService;
 
 public class VpnHelper {
@@ -15,10 +16,17 @@ public class VpnHelper {
     }
 
     public static void startVpn(Context context) {
+        startVpn(context, null);
+    }
+
+    /**
+     * @param traceId the connection attempt the VPN is being started for
+     */
+    public static void startVpn(Context context, @Nullable String traceId) {
         if (!OpenVpnConfiguration.isSetup(context)) {
-            context.startService(new Intent(context, OpenVpnConfigurationIntentService.class));
+            OpenVpnConfigurationJob.submit(context);
         }
 
-        context.startService(new Intent(context, VpnService.class));
+        context.startService(Tracer.attach(new Intent(context, VpnService.class), traceId));
     }
 }
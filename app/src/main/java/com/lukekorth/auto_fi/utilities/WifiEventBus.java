@@ -0,0 +1,201 @@
+package com.lukekorth.auto_fi.utilities;
+
+import android.content.BroadcastReceiver;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Debounces wifi, scan and idle broadcasts before acting on them. Events with the same key that
+ * arrive within {@link #DEBOUNCE} of each other are coalesced into a single run of the last
+ * event's work, which then runs on a small bounded worker pool. Work for a key never runs
+ * concurrently with itself; an event whose key is still in flight is held back, coalescing with
+ * later events for the key, and dispatched as soon as the running work finishes, so the newest
+ * event is always handled.
+ *
+ * Receivers pass their {@link BroadcastReceiver#goAsync()} result so the process is kept alive
+ * until the coalesced work has finished. Work that hands off to something longer running, like a
+ * job, calls {@link #holdPendingResults()} instead of blocking a worker until it is done.
+ */
+public class WifiEventBus {
+
+    public static final long DEBOUNCE = 750;
+
+    private static final int WORKERS = 2;
+    private static final int QUEUE_SIZE = 16;
+
+    private static WifiEventBus sInstance;
+    private static final ThreadLocal<Event> sCurrentEvent = new ThreadLocal<>();
+
+    private final Handler mHandler;
+    private final ThreadPoolExecutor mWorkers;
+    // only used on the handler thread
+    private final Map<String, Event> mPending = new HashMap<>();
+    private final Map<String, Event> mDeferred = new HashMap<>();
+    private final Set<String> mRunning = new HashSet<>();
+
+    private class Event implements Runnable {
+
+        private final String mKey;
+        private final Runnable mWork;
+        private final List<BroadcastReceiver.PendingResult> mPendingResults = new ArrayList<>();
+        private boolean mHeld;
+
+        private Event(String key, Runnable work) {
+            mKey = key;
+            mWork = work;
+        }
+
+        @Override
+        public void run() {
+            sCurrentEvent.set(this);
+            try {
+                mWork.run();
+            } catch (RuntimeException e) {
+                Logger.error(e);
+            } finally {
+                sCurrentEvent.remove();
+                if (!mHeld) {
+                    finish();
+                }
+                onFinished(mKey);
+            }
+        }
+
+        private void coalesce(Event previous) {
+            mPendingResults.addAll(0, previous.mPendingResults);
+            Logger.debug("Coalescing " + mKey + " event");
+        }
+
+        private void finish() {
+            for (BroadcastReceiver.PendingResult pendingResult : mPendingResults) {
+                pendingResult.finish();
+            }
+        }
+    }
+
+    public static synchronized WifiEventBus getInstance() {
+        if (sInstance == null) {
+            sInstance = new WifiEventBus();
+        }
+
+        return sInstance;
+    }
+
+    private WifiEventBus() {
+        HandlerThread thread = new HandlerThread("WifiEventBus");
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+
+        mWorkers = new ThreadPoolExecutor(WORKERS, WORKERS, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(QUEUE_SIZE), new RejectedExecutionHandler() {
+                    @Override
+                    public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+                        Event event = (Event) runnable;
+                        Logger.warn("Dropping " + event.mKey + " event, workers are saturated");
+                        event.finish();
+                        onFinished(event.mKey);
+                    }
+                });
+        mWorkers.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Keeps the pending results of the event whose work is running on this thread from being
+     * finished when the work returns. The key is still released, so later events aren't held up.
+     *
+     * @return finishes the held pending results, must be run exactly once
+     * @throws IllegalStateException if not called from an event's work
+     */
+    public static Runnable holdPendingResults() {
+        final Event event = sCurrentEvent.get();
+        if (event == null) {
+            throw new IllegalStateException("Pending results can only be held by an event's work");
+        }
+
+        event.mHeld = true;
+        return new Runnable() {
+            @Override
+            public void run() {
+                event.finish();
+            }
+        };
+    }
+
+    /**
+     * @param key events with the same key are coalesced, e.g. the event type and BSSID
+     * @param pendingResult the receiver's async result, finished once the work has run or has
+     *                      been coalesced or dropped
+     * @param work runs on a worker thread
+     */
+    public void post(final String key, @Nullable final BroadcastReceiver.PendingResult pendingResult,
+                     final Runnable work) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                Event event = new Event(key, work);
+                Event previous = mPending.put(key, event);
+                if (previous != null) {
+                    mHandler.removeCallbacksAndMessages(previous);
+                    event.coalesce(previous);
+                }
+
+                if (pendingResult != null) {
+                    event.mPendingResults.add(pendingResult);
+                }
+
+                mHandler.postAtTime(new Runnable() {
+                    @Override
+                    public void run() {
+                        dispatch(key);
+                    }
+                }, event, SystemClock.uptimeMillis() + DEBOUNCE);
+            }
+        });
+    }
+
+    private void dispatch(String key) {
+        Event event = mPending.remove(key);
+        if (event == null) {
+            return;
+        }
+
+        if (mRunning.contains(key)) {
+            Event previous = mDeferred.put(key, event);
+            if (previous != null) {
+                event.coalesce(previous);
+            }
+            Logger.debug("Deferring " + key + " event until the running one has finished");
+            return;
+        }
+
+        mRunning.add(key);
+        mWorkers.execute(event);
+    }
+
+    private void onFinished(final String key) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mRunning.remove(key);
+                Event deferred = mDeferred.remove(key);
+                if (deferred != null) {
+                    mRunning.add(key);
+                    mWorkers.execute(deferred);
+                }
+            }
+        });
+    }
+}
@@ -1,32 +1,45 @@
 package com.lukekorth.auto_fi.utilities;
 
 import android.annotation.SuppressLint;
+import android.content.BroadcastReceiver;
 import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
 import android.net.ConnectivityManager;
 import android.net.Network;
-import android.net.NetworkInfo;
 import android.net.wifi.WifiConfiguration;
 import android.net.wifi.WifiInfo;
 import android.net.wifi.WifiManager;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
-import com.lukekorth.auto_fi.models.WifiNetwork;
+import com.lukekorth.auto_fi.models.Database;
+import com.lukekorth.auto_fi.models.WifiNetworkRepository;
 
+import java.util.ArrayList;
 import java.util.List;
-
-import io.realm.Realm;
+import java.util.Set;
 
 public class WifiHelper {
 
+    private static final String NO_BSSID = "02:00:00:00:00:00";
+    private static final String CONFIGURED_NETWORKS_CHANGED_ACTION = "android.net.wifi.CONFIGURED_NETWORKS_CHANGE";
+
+    private static volatile ConfiguredNetworkIndex sConfiguredNetworks;
+    private static boolean sConfiguredNetworksReceiverRegistered;
+
     private ConnectivityManager mConnectivityManager;
     private WifiManager mWifiManager;
+    private WifiStateTracker mStateTracker;
 
     @SuppressLint("WifiManagerPotentialLeak")
     public WifiHelper(Context context) {
         context = context.getApplicationContext();
         mConnectivityManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
         mWifiManager = (WifiManager) context.getSystemService(Context.WIFI_SERVICE);
+        mStateTracker = WifiStateTracker.getInstance(context);
+
+        registerConfiguredNetworksReceiver(context);
     }
 
     public ConnectivityManager getConnectivityManager() {
@@ -37,6 +50,10 @@ public class WifiHelper {
         return mWifiManager;
     }
 
+    public WifiStateTracker getStateTracker() {
+        return mStateTracker;
+    }
+
     @Nullable
     public WifiConfiguration getCurrentNetwork() {
         return getNetworkConfiguration(mWifiManager.getConnectionInfo());
@@ -55,33 +72,60 @@ public class WifiHelper {
     @Nullable
     public WifiConfiguration getNetworkConfiguration(@Nullable WifiInfo wifiInfo) {
         if (wifiInfo != null) {
-            List<WifiConfiguration> wifiConfigurationList = mWifiManager.getConfiguredNetworks();
-            if (wifiConfigurationList != null) {
-                for (WifiConfiguration configuration : mWifiManager.getConfiguredNetworks()) {
-                    if (configuration.networkId == wifiInfo.getNetworkId()) {
-                        return configuration;
-                    }
-                }
-            }
+            return getConfiguredNetworkIndex().get(wifiInfo.getNetworkId());
         }
 
         return null;
     }
 
-    public boolean isConnected() {
-        return getConnectedNetwork() != null;
+    /**
+     * @param ssid the quoted SSID, as used in {@link WifiConfiguration#SSID}
+     */
+    @Nullable
+    public WifiConfiguration getConfiguredNetwork(String ssid) {
+        return getConfiguredNetworkIndex().get(ssid);
+    }
+
+    public List<WifiConfiguration> getConfiguredNetworks() {
+        return getConfiguredNetworkIndex().getNetworks();
     }
 
+    /**
+     * Adds and connects to an open network.
+     *
+     * @param ssid the quoted SSID
+     */
+    public void connectToUnsecuredNetwork(String ssid) {
+        WifiConfiguration configuration = new WifiConfiguration();
+        configuration.SSID = ssid;
+        configuration.allowedKeyManagement.set(WifiConfiguration.KeyMgmt.NONE);
+        int networkId = mWifiManager.addNetwork(configuration);
+        mWifiManager.enableNetwork(networkId, true);
+        mWifiManager.saveConfiguration();
+        invalidateConfiguredNetworks();
+        mWifiManager.reconnect();
+    }
+
+    /**
+     * @return the BSSID of the access point wifi is currently associated with
+     */
     @Nullable
-    private Network getConnectedNetwork() {
-        for (Network network : mConnectivityManager.getAllNetworks()) {
-            NetworkInfo networkInfo = mConnectivityManager.getNetworkInfo(network);
-            if (networkInfo != null && networkInfo.getType() == ConnectivityManager.TYPE_WIFI) {
-                return network;
-            }
+    public String getCurrentBssid() {
+        WifiInfo wifiInfo = mWifiManager.getConnectionInfo();
+        if (wifiInfo == null || wifiInfo.getBSSID() == null || NO_BSSID.equals(wifiInfo.getBSSID())) {
+            return null;
         }
 
-        return null;
+        return wifiInfo.getBSSID();
+    }
+
+    public boolean isConnected() {
+        return mStateTracker.isConnected();
+    }
+
+    @Nullable
+    public Network getConnectedNetwork() {
+        return mStateTracker.getNetwork();
     }
 
     public boolean isUnsecured(@Nullable WifiConfiguration wifiConfiguration) {
@@ -94,47 +138,77 @@ public class WifiHelper {
         if (configuration != null) {
             mWifiManager.removeNetwork(configuration.networkId);
             mWifiManager.saveConfiguration();
+            invalidateConfiguredNetworks();
             mWifiManager.disconnect();
         }
 
-        WifiNetwork.setAllAutoConnectedNetworksDisconnected();
+        WifiNetworkRepository.setAllAutoconnectedDisconnected();
         cleanupSavedNetworks();
     }
 
     public void blacklistAndDisconnectFromCurrentNetwork() {
-        WifiConfiguration configuration = getCurrentNetwork();
-        if (configuration != null && WifiNetwork.isAutoconnectedNetwork(configuration)) {
-            Logger.info("Blacklisting " + configuration.SSID);
-            WifiNetwork.blacklist(configuration.SSID);
-            disconnectFromCurrentNetwork();
-        }
+        final WifiConfiguration configuration = getCurrentNetwork();
+        WifiNetworkRepository.isAutoconnected(configuration, new Database.Callback<Boolean>() {
+            @Override
+            public void onResult(Boolean autoconnected) {
+                if (autoconnected) {
+                    Logger.info("Blacklisting " + configuration.SSID);
+                    WifiNetworkRepository.blacklist(configuration.SSID);
+                    disconnectFromCurrentNetwork();
+                }
+            }
+        });
     }
 
+    /**
+     * Removes the saved unsecured networks this app connected to, other than the current network.
+     * Which networks the app connected to is looked up in the background, so they are removed
+     * asynchronously.
+     */
     public void cleanupSavedNetworks() {
         Logger.debug("Cleaning up saved wifi networks");
 
-        Realm realm = Realm.getDefaultInstance();
-        List<WifiConfiguration> wifiConfigurationList = mWifiManager.getConfiguredNetworks();
-        if (wifiConfigurationList != null) {
-            for (WifiConfiguration configuration : wifiConfigurationList) {
-                if (configuration.allowedKeyManagement.get(WifiConfiguration.KeyMgmt.NONE)) {
-                    if (WifiNetwork.find(realm, configuration.SSID) != null) {
-                        WifiConfiguration currentNetwork = getCurrentNetwork();
-                        if (currentNetwork == null || configuration.networkId != currentNetwork.networkId) {
-                            mWifiManager.removeNetwork(configuration.networkId);
-                        }
-                    }
-                }
+        final List<WifiConfiguration> unsecured = new ArrayList<>();
+        for (WifiConfiguration configuration : getConfiguredNetworks()) {
+            if (configuration.allowedKeyManagement.get(WifiConfiguration.KeyMgmt.NONE)) {
+                unsecured.add(configuration);
             }
-            mWifiManager.saveConfiguration();
         }
 
-        realm.close();
+        String[] ssids = new String[unsecured.size()];
+        for (int i = 0; i < ssids.length; i++) {
+            ssids[i] = unsecured.get(i).SSID;
+        }
+
+        WifiNetworkRepository.findKnown(ssids, new Database.Callback<Set<String>>() {
+            @Override
+            public void onResult(Set<String> known) {
+                WifiConfiguration currentNetwork = getCurrentNetwork();
+                boolean removed = false;
+                for (WifiConfiguration configuration : unsecured) {
+                    if (known.contains(configuration.SSID) &&
+                            (currentNetwork == null || configuration.networkId != currentNetwork.networkId)) {
+                        mWifiManager.removeNetwork(configuration.networkId);
+                        removed = true;
+                    }
+                }
+
+                if (removed) {
+                    mWifiManager.saveConfiguration();
+                    invalidateConfiguredNetworks();
+                }
+            }
+        });
     }
 
     @Nullable
     public Network bindToCurrentNetwork() {
         Network network = getConnectedNetwork();
+        if (network == null) {
+            // callers may run right after the wifi broadcast, before the network callback
+            network = mStateTracker.refresh();
+        }
+
         if (network != null) {
             getConnectivityManager().bindProcessToNetwork(network);
         }
@@ -145,4 +219,50 @@ public class WifiHelper {
     public void unbindFromCurrentNetwork() {
         getConnectivityManager().bindProcessToNetwork(null);
     }
+
+    /**
+     * Discards the configured network snapshot so the next lookup reloads it. Called after this
+     * app changes the configured networks since the system broadcast arrives asynchronously.
+     */
+    public static void invalidateConfiguredNetworks() {
+        sConfiguredNetworks = null;
+    }
+
+    /**
+     * @return a snapshot of the configured networks shared by every {@link WifiHelper}, which is
+     *         reloaded after {@code CONFIGURED_NETWORKS_CHANGE} instead of on every lookup
+     */
+    private ConfiguredNetworkIndex getConfiguredNetworkIndex() {
+        ConfiguredNetworkIndex index = sConfiguredNetworks;
+        if (index != null) {
+            return index;
+        }
+
+        List<WifiConfiguration> networks = mWifiManager.getConfiguredNetworks();
+        if (networks == null) {
+            // wifi is off, try again on the next lookup
+            return ConfiguredNetworkIndex.EMPTY;
+        }
+
+        index = new ConfiguredNetworkIndex(networks);
+        sConfiguredNetworks = index;
+        return index;
+    }
+
+    private static synchronized void registerConfiguredNetworksReceiver(Context context) {
+        if (sConfiguredNetworksReceiverRegistered) {
+            return;
+        }
+        sConfiguredNetworksReceiverRegistered = true;
+
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(CONFIGURED_NETWORKS_CHANGED_ACTION);
+        filter.addAction(WifiManager.WIFI_STATE_CHANGED_ACTION);
+        context.registerReceiver(new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                invalidateConfiguredNetworks();
+            }
+        }, filter);
+    }
 }
@@ -0,0 +1,189 @@
+package com.lukekorth.auto_fi.utilities;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.LinkProperties;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkInfo;
+import android.net.NetworkRequest;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.MainThread;
+import android.support.annotation.Nullable;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Tracks the connected wifi network with a {@link ConnectivityManager.NetworkCallback} so reading
+ * it is a memory read instead of a binder call per network.
+ */
+public class WifiStateTracker {
+
+    private static WifiStateTracker sInstance;
+
+    private final ConnectivityManager mConnectivityManager;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final CopyOnWriteArrayList<Listener> mListeners = new CopyOnWriteArrayList<>();
+    private volatile State mState = State.DISCONNECTED;
+
+    public interface Listener {
+
+        /**
+         * Called on the main thread when wifi connects, disconnects or switches networks.
+         *
+         * @param network the connected wifi network, or null if wifi is disconnected
+         */
+        @MainThread
+        void onWifiNetworkChanged(@Nullable Network network);
+    }
+
+    /**
+     * Immutable snapshot of the connected wifi network.
+     */
+    public static class State {
+
+        static final State DISCONNECTED = new State(null, null, null);
+
+        private final Network mNetwork;
+        private final LinkProperties mLinkProperties;
+        private final NetworkCapabilities mCapabilities;
+
+        State(@Nullable Network network, @Nullable LinkProperties linkProperties,
+              @Nullable NetworkCapabilities capabilities) {
+            mNetwork = network;
+            mLinkProperties = linkProperties;
+            mCapabilities = capabilities;
+        }
+
+        @Nullable
+        public Network getNetwork() {
+            return mNetwork;
+        }
+
+        @Nullable
+        public LinkProperties getLinkProperties() {
+            return mLinkProperties;
+        }
+
+        @Nullable
+        public NetworkCapabilities getCapabilities() {
+            return mCapabilities;
+        }
+    }
+
+    public static synchronized WifiStateTracker getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new WifiStateTracker(context.getApplicationContext());
+        }
+
+        return sInstance;
+    }
+
+    private WifiStateTracker(Context context) {
+        mConnectivityManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+
+        refresh();
+
+        NetworkRequest request = new NetworkRequest.Builder()
+                .addTransportType(NetworkCapabilities.TRANSPORT_WIFI)
+                .removeCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET)
+                .build();
+        mConnectivityManager.registerNetworkCallback(request, new ConnectivityManager.NetworkCallback() {
+            @Override
+            public void onAvailable(Network network) {
+                update(new State(network, mConnectivityManager.getLinkProperties(network),
+                        mConnectivityManager.getNetworkCapabilities(network)));
+            }
+
+            @Override
+            public void onCapabilitiesChanged(Network network, NetworkCapabilities capabilities) {
+                State state = mState;
+                if (network.equals(state.mNetwork)) {
+                    update(new State(network, state.mLinkProperties, capabilities));
+                }
+            }
+
+            @Override
+            public void onLinkPropertiesChanged(Network network, LinkProperties linkProperties) {
+                State state = mState;
+                if (network.equals(state.mNetwork)) {
+                    update(new State(network, linkProperties, state.mCapabilities));
+                }
+            }
+
+            @Override
+            public void onLost(Network network) {
+                if (network.equals(mState.mNetwork)) {
+                    update(State.DISCONNECTED);
+                }
+            }
+        });
+    }
+
+    public State getState() {
+        return mState;
+    }
+
+    @Nullable
+    public Network getNetwork() {
+        return mState.mNetwork;
+    }
+
+    public boolean isConnected() {
+        return mState.mNetwork != null;
+    }
+
+    public void addListener(Listener listener) {
+        mListeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Polls {@link ConnectivityManager} for the wifi network. Only needed when a caller may run
+     * before the callback has been delivered, e.g. right after a wifi broadcast.
+     */
+    @Nullable
+    public Network refresh() {
+        for (Network network : mConnectivityManager.getAllNetworks()) {
+            NetworkInfo networkInfo = mConnectivityManager.getNetworkInfo(network);
+            if (networkInfo != null && networkInfo.getType() == ConnectivityManager.TYPE_WIFI) {
+                if (!network.equals(mState.mNetwork)) {
+                    update(new State(network, mConnectivityManager.getLinkProperties(network),
+                            mConnectivityManager.getNetworkCapabilities(network)));
+                }
+
+                return network;
+            }
+        }
+
+        if (mState.mNetwork != null) {
+            update(State.DISCONNECTED);
+        }
+
+        return null;
+    }
+
+    private synchronized void update(State state) {
+        final Network previousNetwork = mState.mNetwork;
+        mState = state;
+
+        final Network network = state.mNetwork;
+        if (network == null ? previousNetwork == null : network.equals(previousNetwork)) {
+            return;
+        }
+
+        Logger.debug("Wifi network changed from " + previousNetwork + " to " + network);
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (Listener listener : mListeners) {
+                    listener.onWifiNetworkChanged(network);
+                }
+            }
+        });
+    }
+}
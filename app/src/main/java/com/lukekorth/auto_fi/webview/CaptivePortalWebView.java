@@ -21,6 +21,8 @@ import java.lang.reflect.Method;
 public class CaptivePortalWebView extends WebView {
 
     private WifiHelper mWifiHelper;
+    private JavascriptLoggingInterface mJavascriptInterface;
+    private CaptivePortalWebViewClient mWebViewClient;
 
     public CaptivePortalWebView(Context context) {
         super(context);
@@ -51,7 +53,8 @@ public class CaptivePortalWebView extends WebView {
     private void init() {
         clearCache(true);
         getSettings().setJavaScriptEnabled(true);
-        addJavascriptInterface(new JavascriptLoggingInterface(), "AutoFi");
+        mJavascriptInterface = new JavascriptLoggingInterface();
+        addJavascriptInterface(mJavascriptInterface, "AutoFi");
         setWebChromeClient(new CaptivePortalWebChromeClient());
 
         mWifiHelper = new WifiHelper(getContext());
@@ -61,11 +64,17 @@ public class CaptivePortalWebView extends WebView {
         Network network = mWifiHelper.bindToCurrentNetwork();
         setProxyProperties(network);
 
-        setWebViewClient(new CaptivePortalWebViewClient(application, listener, this));
+        mWebViewClient = new CaptivePortalWebViewClient(application, listener, this);
+        mJavascriptInterface.setActionListener(mWebViewClient);
+        setWebViewClient(mWebViewClient);
         loadData("", "text/html", null);
     }
 
     public void tearDown() {
+        if (mWebViewClient != null) {
+            mWebViewClient.cancel();
+        }
+        mJavascriptInterface.setActionListener(null);
         mWifiHelper.unbindFromCurrentNetwork();
     }
 
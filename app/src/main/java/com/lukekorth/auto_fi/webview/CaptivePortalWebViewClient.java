@@ -7,7 +7,9 @@ import android.net.Proxy;
 import android.net.http.SslError;
 import android.os.Handler;
 import android.os.Looper;
+import android.support.annotation.Nullable;
 import android.support.v4.util.ArrayMap;
+import android.text.TextUtils;
 import android.webkit.SslErrorHandler;
 import android.webkit.ValueCallback;
 import android.webkit.WebView;
@@ -15,25 +17,62 @@ import android.webkit.WebViewClient;
 
 import com.google.firebase.analytics.FirebaseAnalytics;
 import com.lukekorth.auto_fi.interfaces.CaptivePortalWebViewListener;
+import com.lukekorth.auto_fi.jobs.CancellationToken;
+import com.lukekorth.auto_fi.jobs.Job;
+import com.lukekorth.auto_fi.jobs.JobRunner;
 import com.lukekorth.auto_fi.models.CaptivePortalPage;
+import com.lukekorth.auto_fi.models.CaptivePortalRecipe;
+import com.lukekorth.auto_fi.models.Database;
 import com.lukekorth.auto_fi.utilities.ConnectivityUtils;
 import com.lukekorth.auto_fi.utilities.Logger;
 import com.lukekorth.auto_fi.utilities.StreamUtils;
+import com.lukekorth.auto_fi.utilities.WifiHelper;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
 
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 
-import io.realm.Realm;
-
-public class CaptivePortalWebViewClient extends WebViewClient {
+public class CaptivePortalWebViewClient extends WebViewClient
+        implements JavascriptLoggingInterface.ActionListener {
 
     private Application mApplication;
     private Context mContext;
     private CaptivePortalWebViewListener mListener;
     private WebView mWebView;
     private String mBypassJavascript;
+    private String mFingerprintJavascript;
+    private String mRecipeJavascript;
     private boolean mFirstPageLoad = true;
     private int mBypassAttempts = 0;
+    private String mFingerprint;
+    private CaptivePortalRecipe mRecipe;
+    private volatile Attempt mAttempt;
+    private volatile boolean mCancelled;
+
+    /**
+     * One bypass attempt and the test of whether it worked. Page loads caused by the attempt's own
+     * click belong to it, so what it recorded or replayed is still there when the test finishes.
+     */
+    private static class Attempt {
+
+        @Nullable
+        final CaptivePortalRecipe replayedRecipe;
+        volatile String recordedSelector;
+        volatile String recordedFormFields;
+        CancellationToken test;
+
+        Attempt(@Nullable CaptivePortalRecipe replayedRecipe) {
+            this.replayedRecipe = replayedRecipe;
+        }
+
+        boolean isTesting() {
+            return test != null && !test.isFinished();
+        }
+    }
 
     public CaptivePortalWebViewClient(Application application,
                                       CaptivePortalWebViewListener listener, WebView webView) {
@@ -42,6 +81,19 @@ public class CaptivePortalWebViewClient extends WebViewClient {
         mListener = listener;
         mWebView = webView;
         mBypassJavascript = StreamUtils.getAsset(mContext, "captive_portal_bypass.js");
+        mFingerprintJavascript = StreamUtils.getAsset(mContext, "captive_portal_fingerprint.js");
+        mRecipeJavascript = StreamUtils.getAsset(mContext, "captive_portal_recipe.js");
+    }
+
+    @Override
+    public void onActionRecorded(String selector, String formFields) {
+        // the first action is the one the attempt took on the portal page, later ones were taken on
+        // pages it led to
+        Attempt attempt = mAttempt;
+        if (attempt != null && attempt.recordedSelector == null) {
+            attempt.recordedFormFields = formFields;
+            attempt.recordedSelector = selector;
+        }
     }
 
     @Override
@@ -78,19 +130,26 @@ public class CaptivePortalWebViewClient extends WebViewClient {
     }
 
     private void bypassCaptivePortal(WebView view) {
+        Attempt attempt = mAttempt;
+        if (attempt != null && attempt.isTesting()) {
+            // loaded by the attempt being tested, keep following the portal without starting over
+            Logger.info("Page loaded while testing captive portal bypass");
+            if (attempt.replayedRecipe == null) {
+                view.evaluateJavascript(mBypassJavascript, null);
+            }
+            return;
+        }
+
         if (mBypassAttempts == 3) {
             Logger.info("3 captive portal bypasses attempted");
             view.evaluateJavascript("document.documentElement.outerHTML", new ValueCallback<String>() {
                 @Override
                 public void onReceiveValue(String value) {
-                    Realm realm = Realm.getDefaultInstance();
-
-                    realm.beginTransaction();
-                    CaptivePortalPage page = realm.createObject(CaptivePortalPage.class);
-                    page.setHtml(value);
-                    realm.commitTransaction();
-
-                    realm.close();
+                    // the result is a JSON string literal, so markup arrives escaped
+                    String html = parseJavascriptString(value);
+                    if (html != null) {
+                        CaptivePortalPage.store(html);
+                    }
 
                     mListener.onComplete(false);
                 }
@@ -99,29 +158,133 @@ public class CaptivePortalWebViewClient extends WebViewClient {
         }
 
         mBypassAttempts++;
-        Logger.info("Loading javascript to bypass captive portal");
-        view.evaluateJavascript(mBypassJavascript, null);
-        testForCaptivePortal();
+
+        if (mFingerprint == null) {
+            view.evaluateJavascript(mFingerprintJavascript, new ValueCallback<String>() {
+                @Override
+                public void onReceiveValue(String value) {
+                    mFingerprint = parseJavascriptString(value);
+                    if (mFingerprint == null) {
+                        runBypassJavascript(mWebView);
+                        return;
+                    }
+
+                    CaptivePortalRecipe.get(mFingerprint, new Database.Callback<CaptivePortalRecipe>() {
+                        @Override
+                        public void onResult(CaptivePortalRecipe recipe) {
+                            if (mCancelled) {
+                                return;
+                            }
+
+                            mRecipe = recipe;
+                            Logger.info("Captive portal fingerprint " + mFingerprint + (mRecipe != null ?
+                                    " has a learned recipe" : " has no learned recipe"));
+                            runBypassJavascript(mWebView);
+                        }
+                    });
+                }
+            });
+        } else {
+            runBypassJavascript(view);
+        }
     }
 
-    private void testForCaptivePortal() {
-        new Thread(new Runnable() {
-            public void run() {
-                // Give time for captive portal to open.
-                try {
-                    Thread.sleep(5000);
-                } catch (InterruptedException ignored) {}
+    private void runBypassJavascript(WebView view) {
+        Attempt previous = mAttempt;
+        if (previous != null && previous.test != null) {
+            previous.test.cancel();
+        }
+
+        Attempt attempt = new Attempt(mRecipe);
+        mRecipe = null;
+        mAttempt = attempt;
 
+        if (attempt.replayedRecipe != null) {
+            Logger.info("Replaying learned recipe to bypass captive portal");
+            view.evaluateJavascript(buildRecipeJavascript(attempt.replayedRecipe), null);
+        } else {
+            Logger.info("Loading javascript to bypass captive portal");
+            view.evaluateJavascript(mBypassJavascript, null);
+        }
+
+        testForCaptivePortal(attempt);
+    }
+
+    private String buildRecipeJavascript(CaptivePortalRecipe recipe) {
+        String formFields = "[]";
+        if (!TextUtils.isEmpty(recipe.getFormFields())) {
+            try {
+                formFields = new JSONArray(recipe.getFormFields()).toString();
+            } catch (JSONException e) {
+                Logger.warn("Ignoring invalid recipe form fields. " + e.getMessage());
+            }
+        }
+
+        return mRecipeJavascript
+                .replace("<- form fields here ->", formFields)
+                .replace("<- selector here ->", JSONObject.quote(recipe.getSelector()))
+                .replace("<- final url here ->", TextUtils.isEmpty(recipe.getFinalUrl()) ?
+                        "null" : JSONObject.quote(recipe.getFinalUrl()));
+    }
+
+    private void recordRecipe(Attempt attempt) {
+        if (mFingerprint == null) {
+            return;
+        }
+
+        String selector;
+        String formFields;
+        if (attempt.replayedRecipe != null) {
+            selector = attempt.replayedRecipe.getSelector();
+            formFields = attempt.replayedRecipe.getFormFields();
+        } else {
+            selector = attempt.recordedSelector;
+            formFields = attempt.recordedFormFields;
+        }
+
+        if (selector != null) {
+            Logger.info("Recording recipe for captive portal " + mFingerprint);
+            CaptivePortalRecipe.record(mFingerprint, new WifiHelper(mContext).getCurrentNetworkName(),
+                    selector, formFields, mWebView.getUrl());
+        }
+    }
+
+    @Nullable
+    private static String parseJavascriptString(String value) {
+        try {
+            Object parsed = new JSONTokener(value).nextValue();
+            if (parsed instanceof String) {
+                return (String) parsed;
+            }
+        } catch (JSONException e) {
+            Logger.warn("Unable to parse javascript result. " + e.getMessage());
+        }
+
+        return null;
+    }
+
+    private void testForCaptivePortal(final Attempt attempt) {
+        final String fingerprint = mFingerprint;
+        // Give time for captive portal to open.
+        attempt.test = JobRunner.submit(new JobRunner.Request("captive_portal_test", new Job() {
+            @Override
+            public void run(CancellationToken token) {
                 if (ConnectivityUtils.checkConnectivity(mContext) == ConnectivityUtils.ConnectivityState.CONNECTED) {
                     FirebaseAnalytics.getInstance(mContext).logEvent("captive_portal_bypassed", null);
-                    new Handler(Looper.getMainLooper()).post(new Runnable() {
+                    postIfNotCancelled(token, new Runnable() {
                         @Override
                         public void run() {
+                            recordRecipe(attempt);
                             mListener.onComplete(true);
                         }
                     });
                 } else {
-                    new Handler(Looper.getMainLooper()).post(new Runnable() {
+                    if (attempt.replayedRecipe != null && fingerprint != null) {
+                        Logger.info("Learned recipe failed, falling back to heuristics");
+                        CaptivePortalRecipe.forget(fingerprint);
+                    }
+
+                    postIfNotCancelled(token, new Runnable() {
                         @Override
                         public void run() {
                             loadConnectivityCheckUrl(mWebView);
@@ -129,7 +292,29 @@ public class CaptivePortalWebViewClient extends WebViewClient {
                     });
                 }
             }
-        }).start();
+        }).delay(5000));
+    }
+
+    private void postIfNotCancelled(final CancellationToken token, final Runnable runnable) {
+        new Handler(Looper.getMainLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                if (!token.isCancelled()) {
+                    runnable.run();
+                }
+            }
+        });
+    }
+
+    /**
+     * Stops a pending captive portal test and recipe lookup, e.g. once the web view has been torn down.
+     */
+    public void cancel() {
+        mCancelled = true;
+        Attempt attempt = mAttempt;
+        if (attempt != null && attempt.test != null) {
+            attempt.test.cancel();
+        }
     }
 
     private void setWebViewProxy() {
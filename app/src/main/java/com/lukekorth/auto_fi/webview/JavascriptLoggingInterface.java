@@ -1,13 +1,33 @@
 package com.lukekorth.auto_fi.webview;
 
+import android.support.annotation.Nullable;
 import android.webkit.JavascriptInterface;
 
 import com.lukekorth.auto_fi.utilities.Logger;
 
 public class JavascriptLoggingInterface {
 
+    public interface ActionListener {
+        void onActionRecorded(String selector, String formFields);
+    }
+
+    private ActionListener mActionListener;
+
+    public void setActionListener(@Nullable ActionListener actionListener) {
+        mActionListener = actionListener;
+    }
+
     @JavascriptInterface
     public void log(String message) {
         Logger.info("JS Console: " + message);
     }
+
+    @JavascriptInterface
+    public void recordAction(String selector, String formFields) {
+        Logger.debug("JS recorded action on " + selector);
+
+        if (mActionListener != null) {
+            mActionListener.onActionRecorded(selector, formFields);
+        }
+    }
 }